@@ -0,0 +1,667 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// QuakeHeap with its nodes kept in an arena: parallel arrays addressed by index, with a
+// free list that recycles the slots released by extractMin and quakes. Once the arrays
+// have grown to the working size, insert, link and quake allocate nothing. insert returns
+// the index of the new leaf as its locator; it stays valid until that entry is extracted
+// or deleted. The API follows QuakeHeap's, with int handles in place of Locators.
+public class ArenaQuakeHeap<Key extends Comparable<Key>, Value> {
+	private static final int NIL = -1;
+
+	// node u is described by slot u of each array
+	private Object[] keys;
+	private Object[] values;
+	private int[] level;
+	private int[] parent;
+	private int[] leftChild;
+	private int[] rightChild;
+	private int[] prev; // neighbors in the root list (only while a root)
+	private int[] next; // also links the free list
+
+	private int freeList; // first free slot, or NIL
+	private int used; // slots handed out so far
+
+	// first and last root at level lev, and the number of roots there
+	private int[] roots;
+	private int[] rootTails;
+	private int[] rootCt;
+
+	// number of nodes at level lev
+	private int[] nodeCt;
+
+	private int nLevels;
+	private double currRatio;
+	private int minRoot; // root with the smallest key, or NIL
+
+	private int[] scratch = new int[16]; // leaves touched by decreaseKeyAll
+
+	private QuakeHeapStats stats;
+
+	// adaptive mode, as in QuakeHeap (see setAdaptive)
+	private static final int TUNE_WINDOW = 1024; // extractMins between ratio adjustments
+	private static final double RATIO_STEP = 0.05;
+	private boolean adaptive;
+	private long work; // running total, kept whether or not adaptive
+	private long windowStart; // work at the start of the current window
+	private int windowOps;
+	private double lastCost = -1; // work per extractMin over the last window
+	private double ratioStep = RATIO_STEP;
+
+	public ArenaQuakeHeap(int nLevels) {
+		this(nLevels, 16);
+	}
+
+	public ArenaQuakeHeap(int nLevels, int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.keys = new Object[capacity];
+		this.values = new Object[capacity];
+		this.level = new int[capacity];
+		this.parent = new int[capacity];
+		this.leftChild = new int[capacity];
+		this.rightChild = new int[capacity];
+		this.prev = new int[capacity];
+		this.next = new int[capacity];
+		this.roots = new int[nLevels];
+		this.rootTails = new int[nLevels];
+		this.rootCt = new int[nLevels];
+		this.nodeCt = new int[nLevels];
+		this.nLevels = nLevels;
+		this.currRatio = 0.75;
+		clear();
+	}
+
+	// heapify: builds the heap from keys[i], values[i] in linear time
+	public ArenaQuakeHeap(int nLevels, Key[] keys, Value[] values) throws Exception {
+		this(nLevels, 2 * keys.length);
+		insertAll(keys, values);
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0, used, null); // let go of the entries
+		Arrays.fill(values, 0, used, null);
+		Arrays.fill(roots, NIL);
+		Arrays.fill(rootTails, NIL);
+		Arrays.fill(rootCt, 0);
+		Arrays.fill(nodeCt, 0);
+		freeList = NIL;
+		used = 0;
+		minRoot = NIL;
+	}
+
+	public int insert(Key x, Value v) {
+		long start = (stats == null) ? 0 : System.nanoTime();
+		int u = newNode(x, v, 0);
+		nodeCt[0]++;
+		makeRoot(u);
+		offerMinRoot(u);
+		if (adaptive) {
+			growLevels();
+		}
+		if (stats != null) {
+			stats.record(QuakeHeapStats.INSERT, start);
+		}
+		return u;
+	}
+
+	// starts collecting into s, or stops if s is null
+	public void setStats(QuakeHeapStats s) {
+		this.stats = s;
+	}
+
+	public QuakeHeapStats getStats() {
+		return stats;
+	}
+
+	// inserts keys[i], values[i] for all i and returns their handles in the same order.
+	// As in QuakeHeap.insertAll, the leaves are linked into balanced trees bottom-up.
+	public int[] insertAll(Key[] keys, Value[] values) throws Exception {
+		if (keys.length != values.length) {
+			throw new Exception("Keys and values differ in length");
+		}
+		int n = keys.length;
+		int[] handles = new int[n];
+		for (int i = 0; i < n; i++) {
+			handles[i] = newNode(keys[i], values[i], 0);
+		}
+		nodeCt[0] += n;
+		if (adaptive) {
+			growLevels();
+		}
+		// pair the trees of each level into the next, leaving an odd one out as a root
+		int[] trees = handles.clone();
+		for (int lev = 0; lev < nLevels - 1 && n > 0; lev++) {
+			if (n % 2 == 1) {
+				makeRoot(trees[n - 1]);
+				offerMinRoot(trees[n - 1]);
+			}
+			for (int i = 0; i + 1 < n; i += 2) {
+				trees[i / 2] = link(trees[i], trees[i + 1]);
+			}
+			n /= 2;
+		}
+		for (int i = 0; i < n; i++) { // whatever reached the top level
+			makeRoot(trees[i]);
+			offerMinRoot(trees[i]);
+		}
+		return handles;
+	}
+
+	public Key getMinKey() throws Exception {
+		if (minRoot == NIL) {
+			throw new Exception("Empty heap");
+		}
+		return key(minRoot);
+	}
+
+	public Key getKey(int r) {
+		return key(r);
+	}
+
+	public Value getValue(int r) {
+		return value(r);
+	}
+
+	public void decreaseKey(int r, Key newKey) throws Exception {
+		if (!isLeaf(r)) {
+			throw new Exception("No entry at " + r);
+		}
+		long start = (stats == null) ? 0 : System.nanoTime();
+		if (newKey.compareTo(key(r)) > 0) {
+			throw new Exception("Invalid key for decrease-key");
+		}
+		int u = r;
+		int uChild;
+		do {
+			keys[u] = newKey;
+			uChild = u;
+			u = parent[u];
+		} while (u != NIL && uChild == leftChild[u]);
+		// if not root, we cut
+		if (u != NIL) {
+			cut(u);
+		}
+		offerMinRoot(uChild);
+		if (stats != null) {
+			stats.record(QuakeHeapStats.DECREASE_KEY, start);
+		}
+	}
+
+	// applies decreaseKey(handles[i], keys[i]) for all i, in order, and returns the indices
+	// of the entries that were rejected (not a live handle, null, or larger than the current
+	// key) instead of throwing. Works like QuakeHeap.decreaseKeyAll.
+	public ArrayList<Integer> decreaseKeyAll(int[] handles, Key[] keys) throws Exception {
+		if (handles.length != keys.length) {
+			throw new Exception("Handles and keys differ in length");
+		}
+		ArrayList<Integer> invalid = new ArrayList<Integer>();
+		if (scratch.length < handles.length) {
+			scratch = new int[handles.length];
+		}
+		int ct = 0;
+		for (int i = 0; i < handles.length; i++) {
+			int r = handles[i];
+			if (!isLeaf(r) || keys[i] == null || keys[i].compareTo(key(r)) > 0) {
+				invalid.add(i);
+			} else {
+				this.keys[r] = keys[i];
+				scratch[ct++] = r;
+			}
+		}
+		for (int i = 0; i < ct; i++) {
+			int leaf = scratch[i];
+			Key x = key(leaf);
+			int uChild = leaf;
+			int u = parent[leaf];
+			// stops early on a path this batch already updated
+			while (u != NIL && uChild == leftChild[u] && key(u).compareTo(x) > 0) {
+				this.keys[u] = x;
+				uChild = u;
+				u = parent[u];
+			}
+			if (u == NIL) {
+				offerMinRoot(uChild);
+			} else if (uChild == rightChild[u] && key(u).compareTo(x) > 0) {
+				cut(u);
+				offerMinRoot(uChild);
+			}
+		}
+		return invalid;
+	}
+
+	// removes r's entry without going through extractMin, as QuakeHeap.delete does
+	public void delete(int r) throws Exception {
+		if (!isLeaf(r)) {
+			throw new Exception("No entry at " + r);
+		}
+		long start = (stats == null) ? 0 : System.nanoTime();
+		remove(r, NIL);
+		if (stats != null) {
+			stats.record(QuakeHeapStats.DELETE, start);
+		}
+	}
+
+	// deletes r's entry and reinserts it with newKey; the leaf slot is kept, so r stays valid
+	public void increaseKey(int r, Key newKey) throws Exception {
+		if (!isLeaf(r)) {
+			throw new Exception("No entry at " + r);
+		}
+		if (newKey.compareTo(key(r)) < 0) {
+			throw new Exception("Invalid key for increase-key");
+		}
+		remove(r, r);
+		keys[r] = newKey;
+		leftChild[r] = rightChild[r] = NIL;
+		nodeCt[0]++;
+		makeRoot(r);
+		offerMinRoot(r);
+	}
+
+	public Value extractMin() throws Exception {
+		if (minRoot == NIL) {
+			throw new Exception("Empty heap");
+		}
+		long start = (stats == null) ? 0 : System.nanoTime();
+		int u = minRoot;
+		Value result = value(u);
+		unlinkRoot(u);
+		deleteLeftPath(u, NIL);
+		mergeTrees();
+		if (quake()) {
+			updateMinRoot();
+		}
+		if (adaptive) {
+			adapt();
+		}
+		if (stats != null) {
+			stats.recordLevels(nodeCt, nLevels);
+			stats.record(QuakeHeapStats.EXTRACT_MIN, start);
+		}
+		return result;
+	}
+
+	// moves all of other's entries into this heap, leaving other empty, and returns the
+	// offset to add to other's handles to use them with this heap. Nodes can't be shared
+	// between two arenas, so other's slots are copied in: O(slots other has used), not
+	// QuakeHeap.meld's O(nLevels). If other has more levels, this heap grows to match.
+	public int meld(ArenaQuakeHeap<Key, Value> other) throws Exception {
+		if (other == this) {
+			throw new Exception("Attempt to meld a heap with itself");
+		}
+		if (other.nLevels > this.nLevels) {
+			setNLevels(other.nLevels);
+		}
+		int base = used;
+		while (keys.length < base + other.used) {
+			grow();
+		}
+		System.arraycopy(other.keys, 0, keys, base, other.used);
+		System.arraycopy(other.values, 0, values, base, other.used);
+		System.arraycopy(other.level, 0, level, base, other.used);
+		for (int i = 0; i < other.used; i++) {
+			parent[base + i] = shift(other.parent[i], base);
+			leftChild[base + i] = shift(other.leftChild[i], base);
+			rightChild[base + i] = shift(other.rightChild[i], base);
+			prev[base + i] = shift(other.prev[i], base);
+			next[base + i] = shift(other.next[i], base);
+		}
+		used = base + other.used;
+		if (other.freeList != NIL) { // put other's free slots in front of ours
+			int tail = base + other.freeList;
+			while (next[tail] != NIL) {
+				tail = next[tail];
+			}
+			next[tail] = freeList;
+			freeList = base + other.freeList;
+		}
+		for (int lev = 0; lev < other.nLevels; lev++) {
+			if (other.roots[lev] != NIL) {
+				int head = base + other.roots[lev];
+				if (rootTails[lev] == NIL) {
+					roots[lev] = head;
+				} else {
+					next[rootTails[lev]] = head;
+					prev[head] = rootTails[lev];
+				}
+				rootTails[lev] = base + other.rootTails[lev];
+			}
+			rootCt[lev] += other.rootCt[lev];
+			nodeCt[lev] += other.nodeCt[lev];
+		}
+		if (other.minRoot != NIL) {
+			offerMinRoot(base + other.minRoot);
+		}
+		other.clear();
+		if (adaptive) {
+			growLevels();
+		}
+		return base;
+	}
+
+	private static int shift(int u, int base) {
+		return (u == NIL) ? NIL : base + u;
+	}
+
+	public int size() {
+		return nodeCt[0];
+	}
+
+	public void setQuakeRatio(double newRatio) throws Exception {
+		if (newRatio < 0.5 || newRatio > 1.0) {
+			throw new Exception("Quake ratio is outside valid bounds");
+		}
+		this.currRatio = newRatio;
+	}
+
+	public void setNLevels(int nl) throws Exception {
+		if (nl < 1) {
+			throw new Exception("Attempt to set an invalid number of levels");
+		}
+		if (nl < this.nLevels) {
+			clearAllAbove(nl - 1);
+			resizeLevels(nl);
+			updateMinRoot();
+		} else {
+			resizeLevels(nl);
+		}
+	}
+
+	public int getNLevels() {
+		return nLevels;
+	}
+
+	public double getQuakeRatio() {
+		return currRatio;
+	}
+
+	// see QuakeHeap.setAdaptive
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		this.windowStart = work;
+		this.windowOps = 0;
+		this.lastCost = -1;
+		if (adaptive) {
+			growLevels();
+		}
+	}
+
+	// enough levels for one tree to hold every leaf: floor(log2(size)) + 2
+	private int targetLevels() {
+		return 33 - Integer.numberOfLeadingZeros(nodeCt[0]);
+	}
+
+	private void growLevels() {
+		int nl = targetLevels();
+		if (nl > nLevels) {
+			resizeLevels(nl);
+		}
+	}
+
+	private void adapt() throws Exception { // after each extractMin in adaptive mode
+		int nl = targetLevels();
+		if (nl + 4 <= nLevels) {
+			setNLevels(nl);
+		}
+		if (++windowOps == TUNE_WINDOW) {
+			double cost = (double) (work - windowStart) / windowOps;
+			if (lastCost >= 0 && cost > lastCost) {
+				ratioStep = -ratioStep;
+			}
+			currRatio = Math.min(1.0, Math.max(0.5, currRatio + ratioStep));
+			lastCost = cost;
+			windowStart = work;
+			windowOps = 0;
+		}
+	}
+
+	private void resizeLevels(int nl) { // levels above nl must already be empty
+		int old = this.nLevels;
+		this.roots = Arrays.copyOf(roots, nl);
+		this.rootTails = Arrays.copyOf(rootTails, nl);
+		this.rootCt = Arrays.copyOf(rootCt, nl);
+		this.nodeCt = Arrays.copyOf(nodeCt, nl);
+		for (int i = old; i < nl; i++) {
+			roots[i] = rootTails[i] = NIL;
+		}
+		this.nLevels = nl;
+	}
+
+	// true if r is the leaf of a live entry (keys of free slots are null, see freeNode)
+	private boolean isLeaf(int r) {
+		return r >= 0 && r < used && keys[r] != null && level[r] == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Key key(int u) {
+		return (Key) keys[u];
+	}
+
+	@SuppressWarnings("unchecked")
+	private Value value(int u) {
+		return (Value) values[u];
+	}
+
+	private int newNode(Key x, Value v, int lev) {
+		int u;
+		if (freeList != NIL) {
+			u = freeList;
+			freeList = next[u];
+		} else {
+			if (used == keys.length) {
+				grow();
+			}
+			u = used++;
+		}
+		keys[u] = x;
+		values[u] = v;
+		level[u] = lev;
+		parent[u] = leftChild[u] = rightChild[u] = NIL;
+		prev[u] = next[u] = NIL;
+		return u;
+	}
+
+	private void freeNode(int u) {
+		keys[u] = values[u] = null;
+		next[u] = freeList;
+		freeList = u;
+	}
+
+	private void grow() {
+		int cap = 2 * keys.length;
+		keys = Arrays.copyOf(keys, cap);
+		values = Arrays.copyOf(values, cap);
+		level = Arrays.copyOf(level, cap);
+		parent = Arrays.copyOf(parent, cap);
+		leftChild = Arrays.copyOf(leftChild, cap);
+		rightChild = Arrays.copyOf(rightChild, cap);
+		prev = Arrays.copyOf(prev, cap);
+		next = Arrays.copyOf(next, cap);
+	}
+
+	private void makeRoot(int u) { // append u to the roots at its level
+		parent[u] = NIL;
+		int lev = level[u];
+		prev[u] = rootTails[lev];
+		next[u] = NIL;
+		if (rootTails[lev] == NIL) {
+			roots[lev] = u;
+		} else {
+			next[rootTails[lev]] = u;
+		}
+		rootTails[lev] = u;
+		rootCt[lev]++;
+	}
+
+	private void unlinkRoot(int u) {
+		int lev = level[u];
+		if (prev[u] == NIL) {
+			roots[lev] = next[u];
+		} else {
+			next[prev[u]] = next[u];
+		}
+		if (next[u] == NIL) {
+			rootTails[lev] = prev[u];
+		} else {
+			prev[next[u]] = prev[u];
+		}
+		prev[u] = next[u] = NIL;
+		rootCt[lev]--;
+	}
+
+	private void offerMinRoot(int u) {
+		if (minRoot == NIL || key(u).compareTo(key(minRoot)) < 0) {
+			minRoot = u;
+		}
+	}
+
+	// called after a quake or setNLevels, which can replace the nodes holding the minimum
+	private void updateMinRoot() {
+		minRoot = NIL;
+		for (int lev = 0; lev < nLevels; lev++) {
+			if (stats != null) {
+				stats.rootsScanned += rootCt[lev];
+			}
+			work += rootCt[lev];
+			for (int u = roots[lev]; u != NIL; u = next[u]) {
+				offerMinRoot(u);
+			}
+		}
+	}
+
+	// detaches the tree node topping r's left path and deletes the path, freeing every
+	// node on it but keep (NIL, or r's leaf when increaseKey reuses it)
+	private void remove(int r, int keep) throws Exception {
+		int u = r;
+		while (parent[u] != NIL && leftChild[parent[u]] == u) {
+			u = parent[u];
+		}
+		if (parent[u] != NIL) { // u is a right child
+			rightChild[parent[u]] = NIL;
+			parent[u] = NIL;
+		} else {
+			unlinkRoot(u);
+		}
+		boolean wasMin = (minRoot == u);
+		deleteLeftPath(u, keep);
+		if (wasMin) {
+			mergeTrees();
+		}
+		if (quake()) {
+			updateMinRoot();
+		}
+	}
+
+	private void deleteLeftPath(int u, int keep) { // u is no longer in the root list
+		while (u != NIL) {
+			cut(u);
+			nodeCt[level[u]]--;
+			int lc = leftChild[u];
+			if (u != keep) {
+				freeNode(u);
+			}
+			u = lc;
+		}
+	}
+
+	private void cut(int w) {
+		int v = rightChild[w];
+		if (v != NIL) {
+			rightChild[w] = NIL;
+			makeRoot(v);
+			if (stats != null) {
+				stats.cuts++;
+			}
+		}
+	}
+
+	private void clearHelp(int minLevel, int n) {
+		if (n == NIL) {
+			return;
+		}
+		if (level[n] == minLevel) {
+			makeRoot(n);
+		} else {
+			clearHelp(minLevel, leftChild[n]);
+			clearHelp(minLevel, rightChild[n]);
+			freeNode(n);
+		}
+	}
+
+	private void clearAllAbove(int lev) {
+		for (int i = nLevels - 1; i >= lev + 1; i--) {
+			int u = roots[i];
+			while (u != NIL) {
+				int nxt = next[u];
+				clearHelp(lev, u);
+				u = nxt;
+			}
+			work += nodeCt[i];
+			nodeCt[i] = 0;
+			roots[i] = rootTails[i] = NIL;
+			rootCt[i] = 0;
+		}
+	}
+
+	private boolean quake() { // returns true if any levels were cleared
+		boolean quaked = false;
+		for (int i = 0; i <= nLevels - 2; i++) {
+			if (nodeCt[i + 1] > (this.currRatio * nodeCt[i])) {
+				if (stats != null) {
+					stats.quakes++;
+					stats.levelsCleared += nLevels - 1 - i;
+					for (int j = i + 1; j < nLevels; j++) {
+						stats.nodesDiscarded += nodeCt[j];
+					}
+				}
+				clearAllAbove(i);
+				quaked = true;
+			}
+		}
+		return quaked;
+	}
+
+	private int link(int u, int v) {
+		int lev = level[u] + 1;
+		int w;
+		if (key(u).compareTo(key(v)) <= 0) {
+			w = newNode(key(u), value(u), lev);
+			leftChild[w] = u;
+			rightChild[w] = v;
+		} else {
+			w = newNode(key(v), value(v), lev);
+			leftChild[w] = v;
+			rightChild[w] = u;
+		}
+		nodeCt[lev]++;
+		parent[u] = parent[v] = w;
+		if (stats != null) {
+			stats.links++;
+		}
+		work++;
+		return w;
+	}
+
+	// links roots pairwise level by level, finding the new minimum in the same sweep
+	private void mergeTrees() {
+		minRoot = NIL;
+		for (int lev = 0; lev < nLevels - 1; lev++) {
+			while (rootCt[lev] >= 2) {
+				int u = roots[lev];
+				unlinkRoot(u);
+				int v = roots[lev];
+				unlinkRoot(v);
+				makeRoot(link(u, v));
+			}
+			if (roots[lev] != NIL) { // at most one left over
+				offerMinRoot(roots[lev]);
+			}
+		}
+		for (int u = roots[nLevels - 1]; u != NIL; u = next[u]) {
+			offerMinRoot(u);
+		}
+		if (stats != null) {
+			stats.rootsScanned += rootCt[nLevels - 1];
+		}
+		work += rootCt[nLevels - 1];
+	}
+}
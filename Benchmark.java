@@ -0,0 +1,269 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+// Micro-benchmarks for HeightBalancedkdTree and QuakeHeap. Each case is warmed up and then
+// timed over several iterations; allocation is read from the JVM's per-thread counter.
+// Run with: java Benchmark [quick]
+public class Benchmark {
+	private static final int[] SIZES = { 10_000, 100_000, 1_000_000 };
+	private static final int[] MAX_HEIGHT_DIFFS = { 1, 4 };
+	private static final int[] N_LEVELS = { 10, 20 };
+	private static final double[] QUAKE_RATIOS = { 0.5, 0.75, 1.0 };
+	private static final String[] DISTRIBUTIONS = { "uniform", "clustered", "sorted", "grid" };
+	private static final int WARMUP = 3;
+	private static final int ITERATIONS = 5;
+	private static final double WORLD = 1_000_000;
+
+	private static volatile Object sink; // keeps results alive so the JIT can't drop them
+
+	private static class Point implements LabeledPoint2D {
+		private final Point2D pt;
+		private final String label;
+
+		Point(double x, double y, int i) {
+			this.pt = new Point2D(x, y);
+			this.label = Integer.toString(i);
+		}
+
+		public double getX() {
+			return pt.getX();
+		}
+
+		public double getY() {
+			return pt.getY();
+		}
+
+		public double get(int i) {
+			return pt.get(i);
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public Point2D getPoint2D() {
+			return pt;
+		}
+	}
+
+	private interface Op {
+		int run() throws Exception; // returns the number of operations performed
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = (args.length > 0 && args[0].equals("quick")) ? new int[] { 10_000 } : SIZES;
+		System.out.printf("%-64s %12s %12s%n", "benchmark", "ns/op", "bytes/op");
+		for (int n : sizes) {
+			for (String dist : DISTRIBUTIONS) {
+				Point[] pts = points(n, dist, new Random(42));
+				for (int mhd : MAX_HEIGHT_DIFFS) {
+					kdTreeBenchmarks(pts, n, mhd, dist);
+				}
+				for (int nl : N_LEVELS) {
+					for (double ratio : QUAKE_RATIOS) {
+						quakeHeapBenchmarks(pts, n, nl, ratio, dist);
+					}
+				}
+			}
+		}
+	}
+
+	private static void kdTreeBenchmarks(Point[] pts, int n, int mhd, String dist) throws Exception {
+		String tag = "n=" + n + " mhd=" + mhd + " " + dist;
+		Rectangle2D bbox = new Rectangle2D(new Point2D(0, 0), new Point2D(WORLD, WORLD));
+		ArrayList<Point> list = new ArrayList<Point>(n);
+		for (Point p : pts) {
+			list.add(p);
+		}
+		Random rnd = new Random(7);
+
+		measure("kd.insert " + tag, () -> {
+			HeightBalancedkdTree<Point> t = new HeightBalancedkdTree<Point>(mhd, bbox);
+			for (Point p : pts) {
+				t.insert(p);
+			}
+			sink = t;
+			return n;
+		});
+		measure("kd.bulkLoad " + tag, () -> {
+			HeightBalancedkdTree<Point> t = new HeightBalancedkdTree<Point>(mhd, bbox);
+			t.bulkLoad(list);
+			sink = t;
+			return n;
+		});
+
+		HeightBalancedkdTree<Point> tree = new HeightBalancedkdTree<Point>(mhd, bbox);
+		HeightBalancedkdTreeStats shape = new HeightBalancedkdTreeStats();
+		tree.setStats(shape);
+		tree.bulkLoad(list);
+		tree.setStats(null);
+		if (shape.getHeight() != 31 - Integer.numberOfLeadingZeros(n)) {
+			throw new Exception("bulkLoad built a tree of height " + shape.getHeight() + " for " + tag);
+		}
+		int queries = Math.min(n, 100_000);
+		measure("kd.find " + tag, () -> {
+			int found = 0;
+			for (int i = 0; i < queries; i++) {
+				if (tree.find(pts[rnd.nextInt(n)].getPoint2D()) != null) {
+					found++;
+				}
+			}
+			sink = found;
+			return queries;
+		});
+		measure("kd.orthogRangeReport " + tag, () -> {
+			int ct = 0;
+			for (int i = 0; i < 1000; i++) {
+				ct += tree.orthogRangeReport(query(rnd)).size();
+			}
+			sink = ct;
+			return 1000;
+		});
+		measure("kd.orthogRangeCount " + tag, () -> {
+			int ct = 0;
+			for (int i = 0; i < 1000; i++) {
+				ct += tree.orthogRangeCount(query(rnd));
+			}
+			sink = ct;
+			return 1000;
+		});
+		measure("kd.kNearest(10) " + tag, () -> {
+			for (int i = 0; i < queries; i++) {
+				sink = tree.kNearest(new Point2D(rnd.nextDouble() * WORLD, rnd.nextDouble() * WORLD), 10);
+			}
+			return queries;
+		});
+		measure("kd.delete " + tag, () -> {
+			HeightBalancedkdTree<Point> t = new HeightBalancedkdTree<Point>(mhd, bbox);
+			t.bulkLoad(list);
+			for (int i = 0; i < queries; i++) {
+				t.delete(pts[i].getPoint2D());
+			}
+			sink = t;
+			return queries;
+		});
+	}
+
+	private static void quakeHeapBenchmarks(Point[] pts, int n, int nLevels, double ratio, String dist)
+			throws Exception {
+		String tag = "n=" + n + " nLevels=" + nLevels + " ratio=" + ratio + " " + dist;
+
+		measure("quake.insert+extractMin " + tag, () -> {
+			QuakeHeap<Double, Integer> h = new QuakeHeap<Double, Integer>(nLevels);
+			h.setQuakeRatio(ratio);
+			for (int i = 0; i < n; i++) {
+				h.insert(pts[i].getX(), i);
+			}
+			for (int i = 0; i < n; i++) {
+				sink = h.extractMin();
+			}
+			return 2 * n;
+		});
+		measure("quake.long.insert+extractMin " + tag, () -> {
+			LongQuakeHeap h = new LongQuakeHeap(nLevels);
+			h.setQuakeRatio(ratio);
+			for (int i = 0; i < n; i++) {
+				h.insert((long) pts[i].getX(), i);
+			}
+			int last = 0;
+			for (int i = 0; i < n; i++) {
+				last = h.extractMin();
+			}
+			sink = last;
+			return 2 * n;
+		});
+		measure("quake.decreaseKey " + tag, () -> {
+			QuakeHeap<Double, Integer> h = new QuakeHeap<Double, Integer>(nLevels);
+			h.setQuakeRatio(ratio);
+			ArrayList<QuakeHeap<Double, Integer>.Locator> locs = new ArrayList<QuakeHeap<Double, Integer>.Locator>(n);
+			for (int i = 0; i < n; i++) {
+				locs.add(h.insert(pts[i].getX() + WORLD, i));
+			}
+			h.insert(-1.0, -1);
+			h.extractMin(); // removes the sentinel and links the trees
+			for (int i = 0; i < n; i++) {
+				h.decreaseKey(locs.get(i), pts[i].getX());
+			}
+			sink = h;
+			return n;
+		});
+	}
+
+	private static void measure(String name, Op op) throws Exception {
+		for (int i = 0; i < WARMUP; i++) {
+			op.run();
+		}
+		long ops = 0;
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			ops += op.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		bytes = allocatedBytes() - bytes;
+		System.out.printf("%-64s %12.1f %12.1f%n", name, (double) elapsed / ops, (double) bytes / ops);
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+		}
+		return 0; // not available on this JVM
+	}
+
+	private static Rectangle2D query(Random rnd) { // roughly 0.1% of the world
+		double w = WORLD * 0.03;
+		double x = rnd.nextDouble() * (WORLD - w);
+		double y = rnd.nextDouble() * (WORLD - w);
+		return new Rectangle2D(new Point2D(x, y), new Point2D(x + w, y + w));
+	}
+
+	// distinct points: uniform, gaussian clusters, increasing in x (worst case for rebuilds),
+	// or random cells of a grid, so that many points share each x and each y
+	private static Point[] points(int n, String dist, Random rnd) {
+		Point[] pts = new Point[n];
+		double[] cx = new double[16];
+		double[] cy = new double[16];
+		for (int c = 0; c < cx.length; c++) {
+			cx[c] = WORLD * (0.1 + 0.8 * rnd.nextDouble());
+			cy[c] = WORLD * (0.1 + 0.8 * rnd.nextDouble());
+		}
+		int side = (int) Math.ceil(Math.sqrt(n));
+		int[] cells = new int[dist.equals("grid") ? side * side : 0];
+		for (int c = 0; c < cells.length; c++) {
+			cells[c] = c;
+		}
+		for (int c = cells.length - 1; c > 0; c--) { // shuffle, so inserts come in random order
+			int d = rnd.nextInt(c + 1);
+			int t = cells[c];
+			cells[c] = cells[d];
+			cells[d] = t;
+		}
+		for (int i = 0; i < n; i++) {
+			double x;
+			double y;
+			if (dist.equals("clustered")) {
+				int c = rnd.nextInt(cx.length);
+				x = clamp(cx[c] + rnd.nextGaussian() * WORLD * 0.01);
+				y = clamp(cy[c] + rnd.nextGaussian() * WORLD * 0.01);
+			} else if (dist.equals("sorted")) {
+				x = WORLD * i / n;
+				y = rnd.nextDouble() * WORLD;
+			} else if (dist.equals("grid")) {
+				x = (cells[i] % side) * (WORLD / side);
+				y = (cells[i] / side) * (WORLD / side);
+			} else {
+				x = rnd.nextDouble() * WORLD;
+				y = rnd.nextDouble() * WORLD;
+			}
+			pts[i] = new Point(x, y, i);
+		}
+		return pts;
+	}
+
+	private static double clamp(double v) {
+		return Math.max(0, Math.min(WORLD, v));
+	}
+}
@@ -0,0 +1,188 @@
+import java.lang.reflect.Array;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Relaxed concurrent priority queue (a MultiQueue): entries are spread over several QuakeHeap
+// shards, each behind its own lock. insert goes to a random shard, and extractMin samples two
+// shards and takes from the one with the smaller minimum, so threads rarely contend for the
+// same lock. The price is that extractMin may return an entry that is not the global minimum;
+// more shards means less contention and more relaxation. In strict mode extractMin locks every
+// shard and always returns the global minimum.
+public class ConcurrentQuakeHeap<Key extends Comparable<Key>, Value> {
+	private final Shard[] shards;
+	private volatile boolean strict;
+
+	private class Shard {
+		private final QuakeHeap<Key, Value> heap;
+		private final ReentrantLock lock;
+
+		// copies of the heap's minimum key (null if empty) and size, read without the lock
+		private volatile Key min;
+		private volatile int size;
+
+		private Shard(int nLevels) {
+			this.heap = new QuakeHeap<Key, Value>(nLevels);
+			this.lock = new ReentrantLock();
+		}
+
+		private void publish() throws Exception { // call with lock held, after each update
+			size = heap.size();
+			min = (size == 0) ? null : heap.getMinKey();
+		}
+	}
+
+	public ConcurrentQuakeHeap(int nLevels) {
+		this(nLevels, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentQuakeHeap(int nLevels, int nShards) {
+		nShards = Math.max(nShards, 1);
+		this.shards = (Shard[]) Array.newInstance(Shard.class, nShards);
+		for (int i = 0; i < nShards; i++) {
+			shards[i] = new Shard(nLevels);
+		}
+		this.strict = false;
+	}
+
+	public void setStrict(boolean strict) {
+		this.strict = strict;
+	}
+
+	public void setQuakeRatio(double newRatio) throws Exception {
+		for (Shard s : shards) {
+			s.lock.lock();
+			try {
+				s.heap.setQuakeRatio(newRatio);
+			} finally {
+				s.lock.unlock();
+			}
+		}
+	}
+
+	public void insert(Key x, Value v) throws Exception {
+		Shard s = lockRandomShard();
+		try {
+			s.heap.insert(x, v);
+			s.publish();
+		} finally {
+			s.lock.unlock();
+		}
+	}
+
+	// tries random shards until one is free; after a full round of misses, blocks on one
+	// more randomly chosen shard
+	private Shard lockRandomShard() {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		for (int i = 0; i < shards.length; i++) {
+			Shard s = shards[rnd.nextInt(shards.length)];
+			if (s.lock.tryLock()) {
+				return s;
+			}
+		}
+		Shard s = shards[rnd.nextInt(shards.length)];
+		s.lock.lock();
+		return s;
+	}
+
+	public Value extractMin() throws Exception {
+		if (strict) {
+			return extractMinStrict();
+		}
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int misses = 0; // samples whose shard was locked by another thread
+		while (true) {
+			Shard a = shards[rnd.nextInt(shards.length)];
+			Shard b = shards[rnd.nextInt(shards.length)];
+			Key aMin = a.min;
+			Key bMin = b.min;
+			Shard s = (bMin != null && (aMin == null || bMin.compareTo(aMin) < 0)) ? b : a;
+			if (s.min == null) { // both samples empty; the whole heap may be
+				if (size() == 0) {
+					return extractMinStrict(); // throws unless an insert got in meanwhile
+				}
+				Thread.onSpinWait();
+				continue;
+			}
+			if (!s.lock.tryLock()) {
+				// after a full round of misses, wait for the sampled shard instead of spinning
+				if (++misses < shards.length) {
+					Thread.onSpinWait();
+					continue;
+				}
+				s.lock.lock();
+				misses = 0;
+			}
+			try {
+				if (s.heap.size() > 0) {
+					Value result = s.heap.extractMin();
+					s.publish();
+					return result;
+				}
+			} finally {
+				s.lock.unlock();
+			}
+		}
+	}
+
+	// locks all shards (in index order, so strict callers can't deadlock) and takes the global minimum
+	private Value extractMinStrict() throws Exception {
+		int locked = 0;
+		try {
+			Shard best = null;
+			for (Shard s : shards) {
+				s.lock.lock();
+				locked++;
+				if (s.heap.size() > 0 && (best == null || s.heap.getMinKey().compareTo(best.heap.getMinKey()) < 0)) {
+					best = s;
+				}
+			}
+			if (best == null) {
+				throw new Exception("Empty heap");
+			}
+			Value result = best.heap.extractMin();
+			best.publish();
+			return result;
+		} finally {
+			for (int i = 0; i < locked; i++) {
+				shards[i].lock.unlock();
+			}
+		}
+	}
+
+	// smallest key over all shards; only a snapshot while other threads are updating
+	public Key getMinKey() throws Exception {
+		Key min = null;
+		for (Shard s : shards) {
+			Key k = s.min;
+			if (k != null && (min == null || k.compareTo(min) < 0)) {
+				min = k;
+			}
+		}
+		if (min == null) {
+			throw new Exception("Empty heap");
+		}
+		return min;
+	}
+
+	public int size() {
+		int n = 0;
+		for (Shard s : shards) {
+			n += s.size;
+		}
+		return n;
+	}
+
+	public void clear() {
+		for (Shard s : shards) {
+			s.lock.lock();
+			try {
+				s.heap.clear();
+				s.min = null;
+				s.size = 0;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public class ConcurrentkdTree<LPoint extends LabeledPoint2D> {
+	// readers go straight to tree, which is in copy-on-write mode: every update builds
+	// new nodes along its path (and copies any subtree it rebuilds) and then publishes
+	// the new root with a single volatile write, so queries never block on writers
+	private final HeightBalancedkdTree<LPoint> tree;
+	private final ReentrantLock writeLock; // serializes writers only
+
+	public ConcurrentkdTree(int maxHeightDifference, Rectangle2D bbox) {
+		this.tree = new HeightBalancedkdTree<LPoint>(maxHeightDifference, bbox);
+		this.tree.setCopyOnWrite(true);
+		this.writeLock = new ReentrantLock();
+	}
+
+	public void insert(LPoint pt) throws Exception {
+		writeLock.lock();
+		try {
+			tree.insert(pt);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public void delete(Point2D pt) throws Exception {
+		writeLock.lock();
+		try {
+			tree.delete(pt);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public void bulkLoad(Collection<LPoint> pts) throws Exception {
+		writeLock.lock();
+		try {
+			tree.bulkLoad(pts);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public void clear() {
+		writeLock.lock();
+		try {
+			tree.clear();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public LPoint find(Point2D pt) {
+		return tree.find(pt);
+	}
+
+	public ArrayList<LPoint> orthogRangeReport(Rectangle2D query) {
+		return tree.orthogRangeReport(query);
+	}
+
+	public void orthogRangeReport(Rectangle2D query, Consumer<LPoint> action) {
+		tree.orthogRangeReport(query, action);
+	}
+
+	public boolean orthogRangeReportWhile(Rectangle2D query, Predicate<LPoint> action) {
+		return tree.orthogRangeReportWhile(query, action);
+	}
+
+	public int orthogRangeCount(Rectangle2D query) {
+		return tree.orthogRangeCount(query);
+	}
+
+	public LPoint nearestNeighbor(Point2D q) {
+		return tree.nearestNeighbor(q);
+	}
+
+	public ArrayList<LPoint> kNearest(Point2D q, int k) {
+		return tree.kNearest(q, k);
+	}
+
+	public StatickdTree<LPoint> freeze() {
+		return tree.freeze();
+	}
+
+	public int size() {
+		return tree.size();
+	}
+}
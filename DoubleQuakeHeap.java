@@ -0,0 +1,326 @@
+import java.util.Arrays;
+
+// QuakeHeap specialized to double keys and int values. Nodes live in parallel primitive
+// arrays and are addressed by index, so insert, decreaseKey and extractMin never box and,
+// once the arrays have grown to the working size, never allocate. insert returns the index
+// of the new leaf as its locator; it stays valid until that entry is extracted.
+public class DoubleQuakeHeap {
+	private static final int NIL = -1;
+
+	// node u is described by slot u of each array
+	private double[] key;
+	private int[] value;
+	private int[] level;
+	private int[] parent;
+	private int[] leftChild;
+	private int[] rightChild;
+	private int[] prev; // neighbors in the root list (only while a root)
+	private int[] next; // also links the free list
+
+	private int freeList; // first free slot, or NIL
+	private int used; // slots handed out so far
+
+	// first and last root at level lev, and the number of roots there
+	private int[] roots;
+	private int[] rootTails;
+	private int[] rootCt;
+
+	// number of nodes at level lev
+	private int[] nodeCt;
+
+	private int nLevels;
+	private double currRatio;
+	private int minRoot; // root with the smallest key, or NIL
+
+	public DoubleQuakeHeap(int nLevels) {
+		this(nLevels, 16);
+	}
+
+	public DoubleQuakeHeap(int nLevels, int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.key = new double[capacity];
+		this.value = new int[capacity];
+		this.level = new int[capacity];
+		this.parent = new int[capacity];
+		this.leftChild = new int[capacity];
+		this.rightChild = new int[capacity];
+		this.prev = new int[capacity];
+		this.next = new int[capacity];
+		this.roots = new int[nLevels];
+		this.rootTails = new int[nLevels];
+		this.rootCt = new int[nLevels];
+		this.nodeCt = new int[nLevels];
+		this.nLevels = nLevels;
+		this.currRatio = 0.75;
+		clear();
+	}
+
+	public void clear() {
+		Arrays.fill(roots, NIL);
+		Arrays.fill(rootTails, NIL);
+		Arrays.fill(rootCt, 0);
+		Arrays.fill(nodeCt, 0);
+		freeList = NIL;
+		used = 0;
+		minRoot = NIL;
+	}
+
+	public int insert(double x, int v) throws Exception {
+		if (Double.isNaN(x)) { // NaN compares false both ways and would break link
+			throw new Exception("Invalid key for insert");
+		}
+		int u = newNode(x, v, 0);
+		nodeCt[0]++;
+		makeRoot(u);
+		offerMinRoot(u);
+		return u;
+	}
+
+	public double getMinKey() throws Exception {
+		if (minRoot == NIL) {
+			throw new Exception("Empty heap");
+		}
+		return key[minRoot];
+	}
+
+	public double getKey(int r) {
+		return key[r];
+	}
+
+	public void decreaseKey(int r, double newKey) throws Exception {
+		if (!(newKey <= key[r])) { // also rejects NaN
+			throw new Exception("Invalid key for decrease-key");
+		}
+		int u = r;
+		int uChild;
+		do {
+			key[u] = newKey;
+			uChild = u;
+			u = parent[u];
+		} while (u != NIL && uChild == leftChild[u]);
+		// if not root, we cut
+		if (u != NIL) {
+			cut(u);
+		}
+		offerMinRoot(uChild);
+	}
+
+	public int extractMin() throws Exception {
+		if (minRoot == NIL) {
+			throw new Exception("Empty heap");
+		}
+		int u = minRoot;
+		int result = value[u];
+		unlinkRoot(u);
+		deleteLeftPath(u);
+		mergeTrees();
+		if (quake()) {
+			updateMinRoot();
+		}
+		return result;
+	}
+
+	public int size() {
+		return nodeCt[0];
+	}
+
+	public void setQuakeRatio(double newRatio) throws Exception {
+		if (newRatio < 0.5 || newRatio > 1.0) {
+			throw new Exception("Quake ratio is outside valid bounds");
+		}
+		this.currRatio = newRatio;
+	}
+
+	public void setNLevels(int nl) throws Exception {
+		if (nl < 1) {
+			throw new Exception("Attempt to set an invalid number of levels");
+		}
+		if (nl < this.nLevels) {
+			clearAllAbove(nl - 1);
+		}
+		int old = this.nLevels;
+		this.roots = Arrays.copyOf(roots, nl);
+		this.rootTails = Arrays.copyOf(rootTails, nl);
+		this.rootCt = Arrays.copyOf(rootCt, nl);
+		this.nodeCt = Arrays.copyOf(nodeCt, nl);
+		for (int i = old; i < nl; i++) {
+			roots[i] = rootTails[i] = NIL;
+		}
+		this.nLevels = nl;
+		updateMinRoot();
+	}
+
+	private int newNode(double x, int v, int lev) {
+		int u;
+		if (freeList != NIL) {
+			u = freeList;
+			freeList = next[u];
+		} else {
+			if (used == key.length) {
+				grow();
+			}
+			u = used++;
+		}
+		key[u] = x;
+		value[u] = v;
+		level[u] = lev;
+		parent[u] = leftChild[u] = rightChild[u] = NIL;
+		prev[u] = next[u] = NIL;
+		return u;
+	}
+
+	private void freeNode(int u) {
+		next[u] = freeList;
+		freeList = u;
+	}
+
+	private void grow() {
+		int cap = 2 * key.length;
+		key = Arrays.copyOf(key, cap);
+		value = Arrays.copyOf(value, cap);
+		level = Arrays.copyOf(level, cap);
+		parent = Arrays.copyOf(parent, cap);
+		leftChild = Arrays.copyOf(leftChild, cap);
+		rightChild = Arrays.copyOf(rightChild, cap);
+		prev = Arrays.copyOf(prev, cap);
+		next = Arrays.copyOf(next, cap);
+	}
+
+	private void makeRoot(int u) { // append u to the roots at its level
+		parent[u] = NIL;
+		int lev = level[u];
+		prev[u] = rootTails[lev];
+		next[u] = NIL;
+		if (rootTails[lev] == NIL) {
+			roots[lev] = u;
+		} else {
+			next[rootTails[lev]] = u;
+		}
+		rootTails[lev] = u;
+		rootCt[lev]++;
+	}
+
+	private void unlinkRoot(int u) {
+		int lev = level[u];
+		if (prev[u] == NIL) {
+			roots[lev] = next[u];
+		} else {
+			next[prev[u]] = next[u];
+		}
+		if (next[u] == NIL) {
+			rootTails[lev] = prev[u];
+		} else {
+			prev[next[u]] = prev[u];
+		}
+		prev[u] = next[u] = NIL;
+		rootCt[lev]--;
+	}
+
+	private void offerMinRoot(int u) {
+		if (minRoot == NIL || key[u] < key[minRoot]) {
+			minRoot = u;
+		}
+	}
+
+	private void updateMinRoot() {
+		minRoot = NIL;
+		for (int lev = 0; lev < nLevels; lev++) {
+			for (int u = roots[lev]; u != NIL; u = next[u]) {
+				offerMinRoot(u);
+			}
+		}
+	}
+
+	private void deleteLeftPath(int u) { // u is no longer in the root list
+		while (u != NIL) {
+			cut(u);
+			nodeCt[level[u]]--;
+			int lc = leftChild[u];
+			freeNode(u);
+			u = lc;
+		}
+	}
+
+	private void cut(int w) {
+		int v = rightChild[w];
+		if (v != NIL) {
+			rightChild[w] = NIL;
+			makeRoot(v);
+		}
+	}
+
+	private void clearHelp(int minLevel, int n) {
+		if (n == NIL) {
+			return;
+		}
+		if (level[n] == minLevel) {
+			makeRoot(n);
+		} else {
+			clearHelp(minLevel, leftChild[n]);
+			clearHelp(minLevel, rightChild[n]);
+			freeNode(n);
+		}
+	}
+
+	private void clearAllAbove(int lev) {
+		for (int i = nLevels - 1; i >= lev + 1; i--) {
+			int u = roots[i];
+			while (u != NIL) {
+				int nxt = next[u];
+				clearHelp(lev, u);
+				u = nxt;
+			}
+			nodeCt[i] = 0;
+			roots[i] = rootTails[i] = NIL;
+			rootCt[i] = 0;
+		}
+	}
+
+	private boolean quake() { // returns true if any levels were cleared
+		boolean quaked = false;
+		for (int i = 0; i <= nLevels - 2; i++) {
+			if (nodeCt[i + 1] > (this.currRatio * nodeCt[i])) {
+				clearAllAbove(i);
+				quaked = true;
+			}
+		}
+		return quaked;
+	}
+
+	private int link(int u, int v) {
+		int lev = level[u] + 1;
+		int w;
+		if (key[u] <= key[v]) {
+			w = newNode(key[u], value[u], lev);
+			leftChild[w] = u;
+			rightChild[w] = v;
+		} else {
+			w = newNode(key[v], value[v], lev);
+			leftChild[w] = v;
+			rightChild[w] = u;
+		}
+		nodeCt[lev]++;
+		parent[u] = parent[v] = w;
+		return w;
+	}
+
+	// links roots pairwise level by level, finding the new minimum in the same sweep
+	private void mergeTrees() {
+		minRoot = NIL;
+		for (int lev = 0; lev < nLevels - 1; lev++) {
+			while (rootCt[lev] >= 2) {
+				int u = roots[lev];
+				unlinkRoot(u);
+				int v = roots[lev];
+				unlinkRoot(v);
+				makeRoot(link(u, v));
+			}
+			if (roots[lev] != NIL) { // at most one left over
+				offerMinRoot(roots[lev]);
+			}
+		}
+		for (int u = roots[nLevels - 1]; u != NIL; u = next[u]) {
+			offerMinRoot(u);
+		}
+	}
+}
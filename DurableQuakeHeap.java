@@ -0,0 +1,348 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// QuakeHeap-backed priority queue whose contents survive a crash. Every insert, decreaseKey,
+// delete and extractMin is applied in memory and then appended to a write-ahead log in dir;
+// the log is fsynced once per group of operations (setGroupCommit), so a crash loses at most
+// the last unsynced group. checkpoint() writes the live entries to a compact file and starts
+// an empty log. On open, the checkpoint and the log tail are read back and the heap is rebuilt
+// in one insertAll; a torn record at the end of the log is detected by its checksum and cut off.
+//
+// Entries are named by the long id insert returns, which stays the same across restarts.
+public class DurableQuakeHeap<Key extends Comparable<Key>, Value> {
+	// reads and writes keys or values in the log and checkpoint
+	public interface Codec<T> {
+		void write(DataOutputStream out, T x) throws IOException;
+
+		T read(DataInputStream in) throws IOException;
+	}
+
+	public static final Codec<Long> LONG_CODEC = new Codec<Long>() {
+		public void write(DataOutputStream out, Long x) throws IOException {
+			out.writeLong(x);
+		}
+
+		public Long read(DataInputStream in) throws IOException {
+			return in.readLong();
+		}
+	};
+
+	public static final Codec<Double> DOUBLE_CODEC = new Codec<Double>() {
+		public void write(DataOutputStream out, Double x) throws IOException {
+			out.writeDouble(x);
+		}
+
+		public Double read(DataInputStream in) throws IOException {
+			return in.readDouble();
+		}
+	};
+
+	public static final Codec<String> STRING_CODEC = new Codec<String>() {
+		public void write(DataOutputStream out, String x) throws IOException {
+			out.writeUTF(x);
+		}
+
+		public String read(DataInputStream in) throws IOException {
+			return in.readUTF();
+		}
+	};
+
+	private static final int CHECKPOINT_MAGIC = 0x51484350; // "QHCP"
+	private static final byte INSERT = 1;
+	private static final byte DECREASE_KEY = 2;
+	private static final byte DELETE = 3;
+	private static final byte EXTRACT_MIN = 4;
+
+	private final QuakeHeap<Key, Long> heap; // values are entry ids
+	private final HashMap<Long, QuakeHeap<Key, Long>.Locator> locators;
+	private final HashMap<Long, Value> values;
+	private final Codec<Key> keyCodec;
+	private final Codec<Value> valueCodec;
+	private final File checkpointFile;
+	private final File logFile;
+	private long nextId;
+
+	private FileOutputStream logFileOut;
+	private DataOutputStream logOut;
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(); // record being built
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+	private int groupCommit = 1; // operations per fsync
+	private int unsynced; // operations logged since the last fsync
+	private long checkpointInterval = 0; // log records between automatic checkpoints (0 = never)
+	private long logRecords; // records in the current log
+
+	public DurableQuakeHeap(String dir, int nLevels, Codec<Key> keyCodec, Codec<Value> valueCodec)
+			throws Exception {
+		File d = new File(dir);
+		if (!d.isDirectory() && !d.mkdirs()) {
+			throw new Exception("Cannot create queue directory " + dir);
+		}
+		this.heap = new QuakeHeap<Key, Long>(nLevels);
+		this.locators = new HashMap<Long, QuakeHeap<Key, Long>.Locator>();
+		this.values = new HashMap<Long, Value>();
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		this.checkpointFile = new File(d, "checkpoint");
+		this.logFile = new File(d, "wal");
+		recover();
+	}
+
+	// ops logged but not yet fsynced may be lost in a crash; 1 makes every operation durable
+	public void setGroupCommit(int ops) throws Exception {
+		if (ops < 1) {
+			throw new Exception("Group commit size must be at least 1");
+		}
+		this.groupCommit = ops;
+	}
+
+	// checkpoint automatically once the log holds this many records (0 turns it off)
+	public void setCheckpointInterval(long records) {
+		this.checkpointInterval = Math.max(records, 0);
+	}
+
+	public long insert(Key x, Value v) throws Exception {
+		long id = nextId++;
+		locators.put(id, heap.insert(x, id));
+		values.put(id, v);
+		recordOut.writeByte(INSERT);
+		recordOut.writeLong(id);
+		keyCodec.write(recordOut, x);
+		valueCodec.write(recordOut, v);
+		append();
+		return id;
+	}
+
+	public void decreaseKey(long id, Key newKey) throws Exception {
+		heap.decreaseKey(locator(id), newKey);
+		recordOut.writeByte(DECREASE_KEY);
+		recordOut.writeLong(id);
+		keyCodec.write(recordOut, newKey);
+		append();
+	}
+
+	public void delete(long id) throws Exception {
+		heap.delete(locator(id));
+		locators.remove(id);
+		values.remove(id);
+		recordOut.writeByte(DELETE);
+		recordOut.writeLong(id);
+		append();
+	}
+
+	public Value extractMin() throws Exception {
+		long id = heap.extractMin();
+		locators.remove(id);
+		Value result = values.remove(id);
+		recordOut.writeByte(EXTRACT_MIN);
+		recordOut.writeLong(id);
+		append();
+		return result;
+	}
+
+	public Key getMinKey() throws Exception {
+		return heap.getMinKey();
+	}
+
+	public int size() {
+		return heap.size();
+	}
+
+	private QuakeHeap<Key, Long>.Locator locator(long id) throws Exception {
+		QuakeHeap<Key, Long>.Locator r = locators.get(id);
+		if (r == null) {
+			throw new Exception("No entry with id " + id);
+		}
+		return r;
+	}
+
+	// frames the record in recordOut as [length, crc, bytes] and adds it to the log
+	private void append() throws IOException {
+		crc.reset();
+		crc.update(record.toByteArray(), 0, record.size());
+		logOut.writeInt(record.size());
+		logOut.writeInt((int) crc.getValue());
+		record.writeTo(logOut);
+		record.reset();
+		logRecords++;
+		if (++unsynced >= groupCommit) {
+			sync();
+		}
+		if (checkpointInterval > 0 && logRecords >= checkpointInterval) {
+			checkpoint();
+		}
+	}
+
+	// makes every operation so far durable
+	public void sync() throws IOException {
+		logOut.flush();
+		logFileOut.getChannel().force(false);
+		unsynced = 0;
+	}
+
+	// writes the live entries to a new checkpoint and starts an empty log. The checkpoint
+	// replaces the old one atomically; if a crash leaves the old log behind, replaying it
+	// on top of the new checkpoint is harmless (see replay)
+	public void checkpoint() throws IOException {
+		File tmp = new File(checkpointFile.getPath() + ".tmp");
+		try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeLong(nextId);
+			out.writeInt(values.size());
+			for (Map.Entry<Long, Value> e : values.entrySet()) {
+				out.writeLong(e.getKey());
+				keyCodec.write(out, heap.getKey(locators.get(e.getKey())));
+				valueCodec.write(out, e.getValue());
+			}
+			out.flush();
+			fileOut.getChannel().force(false);
+		}
+		Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(); // the rename must be durable before the log it replaces is emptied
+		logOut.flush();
+		logFileOut.getChannel().truncate(0);
+		logFileOut.getChannel().force(false);
+		logRecords = 0;
+		unsynced = 0;
+	}
+
+	// fsyncs the queue directory, making renames and newly created files in it durable
+	private void syncDirectory() throws IOException {
+		try (FileChannel dir = FileChannel.open(logFile.getParentFile().toPath(), StandardOpenOption.READ)) {
+			dir.force(true);
+		}
+	}
+
+	public void close() throws IOException {
+		sync();
+		logOut.close();
+	}
+
+	private void recover() throws Exception {
+		// id -> {key, value} of the live entries, in insertion order
+		LinkedHashMap<Long, Object[]> live = new LinkedHashMap<Long, Object[]>();
+		long checkpointNext = 0;
+		if (checkpointFile.exists()) {
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+				if (in.readInt() != CHECKPOINT_MAGIC) {
+					throw new Exception("Not a queue checkpoint: " + checkpointFile);
+				}
+				checkpointNext = in.readLong();
+				int n = in.readInt();
+				for (int i = 0; i < n; i++) {
+					long id = in.readLong();
+					Key x = keyCodec.read(in);
+					live.put(id, new Object[] { x, valueCodec.read(in) });
+				}
+			}
+		}
+		nextId = checkpointNext;
+		long good = logFile.exists() ? replay(live, checkpointNext) : 0;
+
+		// bulk rebuild
+		@SuppressWarnings("unchecked")
+		Key[] keys = (Key[]) new Comparable<?>[live.size()];
+		Long[] ids = new Long[live.size()];
+		int i = 0;
+		for (Map.Entry<Long, Object[]> e : live.entrySet()) {
+			@SuppressWarnings("unchecked")
+			Key x = (Key) e.getValue()[0];
+			@SuppressWarnings("unchecked")
+			Value v = (Value) e.getValue()[1];
+			keys[i] = x;
+			ids[i] = e.getKey();
+			values.put(e.getKey(), v);
+			i++;
+		}
+		QuakeHeap<Key, Long>.Locator[] locs = heap.insertAll(keys, ids);
+		for (i = 0; i < ids.length; i++) {
+			locators.put(ids[i], locs[i]);
+		}
+
+		// reopen the log for appending, without any torn tail
+		boolean created = !logFile.exists();
+		this.logFileOut = new FileOutputStream(logFile, true);
+		FileChannel ch = logFileOut.getChannel();
+		if (ch.size() > good) {
+			ch.truncate(good);
+			ch.force(false);
+		}
+		if (created) {
+			syncDirectory();
+		}
+		this.logOut = new DataOutputStream(new BufferedOutputStream(logFileOut));
+	}
+
+	// applies the log to live and returns the length of its intact prefix. Records older
+	// than the checkpoint may be replayed again: inserts of ids below checkpointNext are
+	// skipped and deletes of missing ids ignored, so the result is the same either way
+	private long replay(LinkedHashMap<Long, Object[]> live, long checkpointNext) throws IOException {
+		long good = 0;
+		long fileLen = logFile.length();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+			while (true) {
+				int len;
+				int sum;
+				byte[] b;
+				try {
+					len = in.readInt();
+					sum = in.readInt();
+					if (len <= 0 || len > fileLen - good - 8) { // a torn or corrupt length
+						break;
+					}
+					b = new byte[len];
+					in.readFully(b);
+				} catch (EOFException e) { // torn tail
+					break;
+				}
+				crc.reset();
+				crc.update(b, 0, len);
+				if ((int) crc.getValue() != sum) {
+					break;
+				}
+				DataInputStream r = new DataInputStream(new ByteArrayInputStream(b));
+				byte type = r.readByte();
+				long id = r.readLong();
+				if (type == INSERT) {
+					Key x = keyCodec.read(r);
+					Value v = valueCodec.read(r);
+					if (id >= checkpointNext) {
+						live.put(id, new Object[] { x, v });
+					}
+					nextId = Math.max(nextId, id + 1);
+				} else if (type == DECREASE_KEY) {
+					Key x = keyCodec.read(r);
+					Object[] e = live.get(id);
+					if (e != null) {
+						e[0] = x;
+					}
+				} else { // DELETE or EXTRACT_MIN
+					live.remove(id);
+				}
+				good += 8 + len;
+				logRecords++;
+			}
+		}
+		return good;
+	}
+}
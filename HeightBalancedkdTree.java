@@ -1,7 +1,15 @@
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 	private class KDNode { // node in a kd-tree
@@ -9,6 +17,8 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		private int cutDim; // cutting dimension
 		private float cutVal; //
 		private int height; // height of tree
+		private int size; // number of nodes in tree
+		private boolean dirty; // touched by a batch update, balance not yet checked
 		private KDNode left; // left child
 		private KDNode right; // right child
 
@@ -17,11 +27,32 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 			this.cutDim = cutDim;
 			this.cutVal = cutVal;
 			this.height = -1;
+			this.size = 0;
 			left = right = null;
 		}
 
+		KDNode(KDNode p) { // copy constructor, used for copy-on-write
+			this.point = p.point;
+			this.cutDim = p.cutDim;
+			this.cutVal = p.cutVal;
+			this.height = p.height;
+			this.size = p.size;
+			this.left = p.left;
+			this.right = p.right;
+		}
+
 		boolean inLeftSubtree(LPoint pt) { // is pt in left subtree?
-			return pt.get(cutDim) < point.get(cutDim);
+			return inLeftSubtree(pt.getX(), pt.getY());
+		}
+
+		// the split order: by the cutting coordinate, ties broken by the other one (as in
+		// ByX and ByY), so points sharing the cutting coordinate can still be split apart
+		boolean inLeftSubtree(double x, double y) {
+			if (cutDim == 0) {
+				return before(x, y, point.getX(), point.getY());
+			} else {
+				return before(y, x, point.getY(), point.getX());
+			}
 		}
 
 		LPoint getPoint() {
@@ -47,29 +78,32 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		}
 
 		LPoint find(Point2D pt) {
+			return find(pt, null);
+		}
+
+		LPoint find(Point2D pt, int[] visits) { // visits[0] counts nodes seen, if not null
+			if (visits != null) {
+				visits[0]++;
+			}
 			if (pt.equals(this.point.getPoint2D())) {
 				return this.point;
-			} else if (cutDim == 0) {
-				if (pt.getX() < cutVal && left != null) {
-					return left.find(pt);
-				} else if (right != null) {
-					return right.find(pt);
-				}
-			} else {
-				if (pt.getY() < cutVal && left != null) {
-					return left.find(pt);
-				} else if (right != null) {
-					return right.find(pt);
-				}
 			}
-			return null;
+			KDNode child = inLeftSubtree(pt.getX(), pt.getY()) ? left : right;
+			return (child == null) ? null : child.find(pt, visits);
 		}
 	}
 
 	private Rectangle2D bbox;
 	private int maxHeightD;
-	private int size;
-	private KDNode root;
+	private volatile int size;
+	private volatile KDNode root; // readers take one snapshot of root per query
+	private boolean copyOnWrite; // never modify a node once it is reachable from root
+	private int parallelThreshold = Integer.MAX_VALUE; // rebuild subtrees this big in parallel
+	private double alpha = 0; // weight-balance factor for scapegoat rebuilds (0 = use heights)
+	private KDNode pending; // lowest out-of-balance node found by the current update
+	private Rectangle2D pendingCell; // its cell
+	private boolean batching; // inside insertAll/deleteAll: mark nodes dirty, don't rebuild
+	private HeightBalancedkdTreeStats stats; // null unless collecting (see setStats)
 	public int DUPLICATE = 28;
 
 	public HeightBalancedkdTree(int maxHeightDifference, Rectangle2D bbox) {
@@ -82,11 +116,79 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		this.bbox = bbox;
 	}
 
+	// when set, updates copy every node they would modify, so readers holding an
+	// old root keep seeing a consistent tree
+	public void setCopyOnWrite(boolean copyOnWrite) {
+		this.copyOnWrite = copyOnWrite;
+	}
+
+	// subtrees with at least this many nodes are rebuilt with fork-join tasks
+	public void setParallelThreshold(int threshold) throws Exception {
+		if (threshold < 2) {
+			throw new Exception("Parallel rebuild threshold must be at least 2");
+		}
+		this.parallelThreshold = threshold;
+	}
+
+	public void setSequentialRebuild() {
+		this.parallelThreshold = Integer.MAX_VALUE;
+	}
+
+	// switches from the height-difference test to a scapegoat-style weight test: a
+	// subtree is rebuilt once one child holds more than alpha of its nodes
+	public void setScapegoatAlpha(double alpha) throws Exception {
+		if (alpha <= 0.5 || alpha >= 1.0) {
+			throw new Exception("Scapegoat alpha is outside valid bounds");
+		}
+		this.alpha = alpha;
+	}
+
+	public void setHeightBalanced() {
+		this.alpha = 0;
+	}
+
+	// starts collecting rebuild and query counters into s, or stops if s is null
+	public void setStats(HeightBalancedkdTreeStats s) {
+		this.stats = s;
+		recordShape();
+	}
+
+	public HeightBalancedkdTreeStats getStats() {
+		return stats;
+	}
+
+	private void recordShape() {
+		if (stats != null) {
+			stats.recordShape(height(root), size);
+		}
+	}
+
+	KDNode writable(KDNode p) {
+		return copyOnWrite ? new KDNode(p) : p;
+	}
+
+	ArrayList<KDNode> writableNodeList(KDNode p) {
+		ArrayList<KDNode> list = makeNodeList(p);
+		if (copyOnWrite) {
+			for (int i = 0; i < list.size(); i++) {
+				list.set(i, new KDNode(list.get(i)));
+			}
+		}
+		return list;
+	}
+
 	public LPoint find(Point2D pt) {
-		if (root == null) {
+		KDNode r = root;
+		HeightBalancedkdTreeStats st = stats;
+		if (r == null) {
 			return null;
+		} else if (st == null) {
+			return r.find(pt);
 		} else {
-			return root.find(pt);
+			int[] visits = { 0 };
+			LPoint found = r.find(pt, visits);
+			st.recordFind(visits[0]);
+			return found;
 		}
 	}
 
@@ -96,8 +198,11 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		if (!(bbox.contains(currPt))) {
 			throw new Exception("Attempt to insert a point outside bounding box");
 		} else {
-			root = insert(pt, root, bbox);
+			pending = null;
+			KDNode newRoot = insert(pt, root, bbox);
+			root = rebuildPending(newRoot);
 			this.size++;
+			recordShape();
 		}
 	}
 
@@ -129,9 +234,13 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 
 		// get left part and right part using utility functions
 		else if (p.inLeftSubtree(pt)) { // insert into left subtree
-			p.left = insert(pt, p.left, cell.leftPart(p.cutDim, p.point.get(cutDim)));
+			KDNode child = insert(pt, p.left, cell.leftPart(p.cutDim, p.point.get(cutDim)));
+			p = writable(p);
+			p.left = child;
 		} else { // insert into right subtree
-			p.right = insert(pt, p.right, cell.rightPart(p.cutDim, p.point.get(cutDim)));
+			KDNode child = insert(pt, p.right, cell.rightPart(p.cutDim, p.point.get(cutDim)));
+			p = writable(p);
+			p.right = child;
 		}
 		return rebalance(p, cell);
 	}
@@ -140,8 +249,13 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		return p == null ? -1 : p.height;
 	}
 
-	void updateHeight(KDNode p) {
+	int size(KDNode p) {
+		return p == null ? 0 : p.size;
+	}
+
+	void updateHeight(KDNode p) { // also updates the subtree size
 		p.height = 1 + Math.max(height(p.left), height(p.right));
+		p.size = 1 + size(p.left) + size(p.right);
 	}
 
 	int balanceFactor(KDNode p) {
@@ -190,73 +304,351 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 	}
 
 	KDNode buildSubtree(List<KDNode> A, Rectangle2D cell) {
+		// copy coordinates out once so the selection compares primitive doubles
 		int k = A.size();
-		float midPoint = 0;
-		double height = cell.getWidth(1);
-		double width = cell.getWidth(0);
+		double[] xs = new double[k];
+		double[] ys = new double[k];
+		if (k >= parallelThreshold) {
+			IntStream.range(0, k).parallel().forEach(i -> {
+				xs[i] = A.get(i).point.getX();
+				ys[i] = A.get(i).point.getY();
+			});
+			return ForkJoinPool.commonPool().invoke(new BuildTask(A, xs, ys, 0, k, cell));
+		}
+		for (int i = 0; i < k; i++) {
+			xs[i] = A.get(i).point.getX();
+			ys[i] = A.get(i).point.getY();
+		}
+		return buildSubtree(A, xs, ys, 0, k, cell);
+	}
 
+	KDNode buildSubtree(List<KDNode> A, double[] xs, double[] ys, int lo, int hi, Rectangle2D cell) {
+		if (lo >= hi) {
+			return null;
+		}
 		int cutDim = 0;
-		if (height > width) {
+		if (cell.getWidth(1) > cell.getWidth(0)) {
 			cutDim = 1;
 		}
+		int j = splitAtMedian(A, xs, ys, lo, hi, cutDim);
+		KDNode p = A.get(j); // root node
+		p.left = buildSubtree(A, xs, ys, lo, j, cell.leftPart(cutDim, p.point.get(cutDim)));
+		p.right = buildSubtree(A, xs, ys, j + 1, hi, cell.rightPart(cutDim, p.point.get(cutDim)));
+		updateHeight(p);
+		return p; // return root of the subtree
+	}
 
-		if (k == 0) {
-			return null;
-		} else {
+	// builds a large subtree: partition around the median in parallel, then build the two
+	// halves as separate tasks; halves below parallelThreshold fall back to the sequential
+	// buildSubtree
+	private class BuildTask extends RecursiveTask<KDNode> {
+		private static final long serialVersionUID = 1L;
+		private final List<KDNode> A;
+		private final double[] xs;
+		private final double[] ys;
+		private final int lo;
+		private final int hi;
+		private final Rectangle2D cell;
 
-			// vertical (sort by x)
-			if (cutDim == 0) {
-				Collections.sort(A, new ByX());
+		BuildTask(List<KDNode> A, double[] xs, double[] ys, int lo, int hi, Rectangle2D cell) {
+			this.A = A;
+			this.xs = xs;
+			this.ys = ys;
+			this.lo = lo;
+			this.hi = hi;
+			this.cell = cell;
+		}
+
+		@Override
+		protected KDNode compute() {
+			if (hi - lo < parallelThreshold) {
+				return buildSubtree(A, xs, ys, lo, hi, cell);
 			}
-			// horizontal (sort by y)
-			else {
-				Collections.sort(A, new ByY());
+			int cutDim = (cell.getWidth(1) > cell.getWidth(0)) ? 1 : 0;
+			int j = parallelSplitAtMedian(A, xs, ys, lo, hi, cutDim);
+			KDNode p = A.get(j);
+			BuildTask left = new BuildTask(A, xs, ys, lo, j, cell.leftPart(cutDim, p.point.get(cutDim)));
+			left.fork();
+			p.right = new BuildTask(A, xs, ys, j + 1, hi, cell.rightPart(cutDim, p.point.get(cutDim))).compute();
+			p.left = left.join();
+			updateHeight(p);
+			return p;
+		}
+	}
+
+	// moves the median of A[lo..hi) in cutDim's split order (see KDNode.inLeftSubtree) into
+	// place, with smaller points before it and larger after, and makes it the splitting
+	// node; returns its index. Points are distinct, so this always halves the range
+	int splitAtMedian(List<KDNode> A, double[] xs, double[] ys, int lo, int hi, int cutDim) {
+		int j = lo + (hi - lo) / 2; // median of subarray
+		return splitAt(A, xs, ys, lo, hi, j, cutDim);
+	}
+
+	// splitAtMedian for A[lo..hi) within a larger range whose median is at j; everything
+	// before lo must already be smaller and everything from hi on larger
+	int splitAt(List<KDNode> A, double[] xs, double[] ys, int lo, int hi, int j, int cutDim) {
+		double[] key = (cutDim == 0) ? xs : ys;
+		double[] other = (cutDim == 0) ? ys : xs;
+		select(A, xs, ys, key, other, lo, hi - 1, j);
+		A.get(j).setNewVals(cutDim, (float) key[j]);
+		A.get(j).dirty = false; // rebuilt nodes are balanced
+		return j;
+	}
+
+	// splitAtMedian for large ranges: quickselect whose passes are three-way partitions done
+	// in parallel (count per chunk, prefix sums, scatter to scratch arrays, copy back). A
+	// pass that lands the median on its pivot finishes the split, since the pivot then sits
+	// with every smaller point before it and every larger one after; once the range is
+	// below parallelThreshold the sequential splitAt takes over
+	int parallelSplitAtMedian(List<KDNode> A, double[] xs, double[] ys, int lo, int hi, int cutDim) {
+		double[] key = (cutDim == 0) ? xs : ys;
+		double[] other = (cutDim == 0) ? ys : xs;
+		int j = lo + (hi - lo) / 2;
+		Object[] tn = new Object[hi - lo];
+		double[] tx = new double[hi - lo];
+		double[] ty = new double[hi - lo];
+		while (hi - lo >= parallelThreshold) {
+			int len = hi - lo;
+			int m = medianOf3(key, other, lo, lo + len / 2, hi - 1);
+			double pivot = key[m];
+			double pivotOther = other[m];
+			int chunks = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(), len / 1024));
+			int step = (len + chunks - 1) / chunks;
+			int[] less = new int[chunks];
+			int[] equal = new int[chunks];
+			int from = lo;
+			int to = hi;
+			IntStream.range(0, chunks).parallel().forEach(c -> {
+				for (int i = from + c * step; i < Math.min(to, from + (c + 1) * step); i++) {
+					if (before(key[i], other[i], pivot, pivotOther)) {
+						less[c]++;
+					} else if (key[i] == pivot && other[i] == pivotOther) {
+						equal[c]++;
+					}
+				}
+			});
+			// where each chunk's smaller, equal and larger keys go, relative to lo
+			int[] lessAt = new int[chunks];
+			int[] equalAt = new int[chunks];
+			int[] greaterAt = new int[chunks];
+			int nLess = 0;
+			int nEqual = 0;
+			for (int c = 0; c < chunks; c++) {
+				nLess += less[c];
+				nEqual += equal[c];
+			}
+			int l = 0;
+			int e = nLess;
+			int g = nLess + nEqual;
+			for (int c = 0; c < chunks; c++) {
+				lessAt[c] = l;
+				equalAt[c] = e;
+				int end = Math.min(len, (c + 1) * step);
+				greaterAt[c] = g;
+				l += less[c];
+				e += equal[c];
+				g += Math.max(0, end - c * step) - less[c] - equal[c];
+			}
+			IntStream.range(0, chunks).parallel().forEach(c -> {
+				int li = lessAt[c];
+				int ei = equalAt[c];
+				int gi = greaterAt[c];
+				for (int i = from + c * step; i < Math.min(to, from + (c + 1) * step); i++) {
+					int d = before(key[i], other[i], pivot, pivotOther) ? li++
+							: (key[i] == pivot && other[i] == pivotOther) ? ei++ : gi++;
+					tn[d] = A.get(i);
+					tx[d] = xs[i];
+					ty[d] = ys[i];
+				}
+			});
+			IntStream.range(0, chunks).parallel().forEach(c -> {
+				for (int i = c * step; i < Math.min(len, (c + 1) * step); i++) {
+					@SuppressWarnings("unchecked")
+					KDNode u = (KDNode) tn[i];
+					A.set(from + i, u);
+					xs[from + i] = tx[i];
+					ys[from + i] = ty[i];
+				}
+			});
+			if (j < lo + nLess) {
+				hi = lo + nLess;
+			} else if (j < lo + nLess + nEqual) { // j is the pivot
+				A.get(j).setNewVals(cutDim, (float) key[j]);
+				A.get(j).dirty = false;
+				return j;
+			} else {
+				lo += nLess + nEqual;
 			}
-			double convert = Math.floor(k / 2); // median of array
-			int j = (int) convert;
-			KDNode p = new KDNode(null, j, j);
-			p = A.get(j); // root node
+		}
+		return splitAt(A, xs, ys, lo, hi, j, cutDim);
+	}
 
-			if (cutDim == 0) {
-				midPoint = (float) ((p.getPoint().getX() + p.getPoint().getX()) / 2);
-				p.setNewVals(cutDim, midPoint);
+	// (a1, a2) comes before (b1, b2): compares first coordinates, then second
+	static boolean before(double a1, double a2, double b1, double b2) {
+		return a1 < b1 || (a1 == b1 && a2 < b2);
+	}
+
+	// index of the median of a, b and c, ordered by key and then other
+	static int medianOf3(double[] key, double[] other, int a, int b, int c) {
+		if (before(key[b], other[b], key[a], other[a])) {
+			int t = a;
+			a = b;
+			b = t;
+		}
+		if (before(key[c], other[c], key[b], other[b])) {
+			return before(key[c], other[c], key[a], other[a]) ? a : c;
+		}
+		return b;
+	}
+
+	// quickselect: puts the k-th smallest of A[lo..hi], ordered by key and then other, at k,
+	// smaller before it, larger after
+	void select(List<KDNode> A, double[] xs, double[] ys, double[] key, double[] other, int lo, int hi, int k) {
+		while (lo < hi) {
+			int m = lo + (hi - lo) / 2;
+			double pivot = key[m];
+			double pivotOther = other[m];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (before(key[i], other[i], pivot, pivotOther)) {
+					i++;
+				}
+				while (before(pivot, pivotOther, key[j], other[j])) {
+					j--;
+				}
+				if (i <= j) {
+					swap(A, xs, ys, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
 			} else {
-				midPoint = (float) ((p.getPoint().getY() + p.getPoint().getY()) / 2);
-				p.setNewVals(cutDim, midPoint);
+				return;
+			}
+		}
+	}
+
+	void swap(List<KDNode> A, double[] xs, double[] ys, int i, int j) {
+		KDNode u = A.get(i);
+		A.set(i, A.get(j));
+		A.set(j, u);
+		double tx = xs[i];
+		xs[i] = xs[j];
+		xs[j] = tx;
+		double ty = ys[i];
+		ys[i] = ys[j];
+		ys[j] = ty;
+	}
+
+	// rebuilds the tree from its points and pts in one pass. Every split is at the exact
+	// median in the split order (see KDNode.inLeftSubtree), so the tree gets the minimum
+	// height, floor(log2(size)), even when many points share a coordinate
+	public void bulkLoad(Collection<LPoint> pts) throws Exception {
+		ArrayList<KDNode> A = writableNodeList(root);
+		A.ensureCapacity(A.size() + pts.size());
+		for (LPoint pt : pts) {
+			if (!(bbox.contains(pt.getPoint2D()))) {
+				throw new Exception("Attempt to insert a point outside bounding box");
+			}
+			A.add(new KDNode(pt, 0, 0));
+		}
+		// one sort up front brings duplicates together
+		ByX byX = new ByX();
+		Collections.sort(A, (u, v) -> {
+			int c = byX.compare(u, v);
+			return (c == DUPLICATE) ? 0 : c; // equal points must compare as 0 for a valid sort
+		});
+		for (int i = 1; i < A.size(); i++) {
+			if (byX.compare(A.get(i - 1), A.get(i)) == DUPLICATE) {
+				throw new Exception("Attempt to insert a duplicate point");
 			}
-			p.left = buildSubtree(A.subList(0, j), cell.leftPart(p.cutDim, p.point.get(cutDim)));
-			p.right = buildSubtree(A.subList(j + 1, k), cell.rightPart(p.cutDim, p.point.get(cutDim)));
-			updateHeight(p);
-			return p; // return root of the subtree
 		}
+		root = buildSubtree(A, bbox);
+		size = A.size();
+		recordShape();
 	}
 
 	public ArrayList<KDNode> makeNodeList(KDNode curr) {
-		ArrayList<KDNode> list = new ArrayList<KDNode>();
-		if (curr == null) {
-			return list;
-		} else {
+		ArrayList<KDNode> list = new ArrayList<KDNode>(size(curr));
+		addNodes(curr, list);
+		return list;
+	}
+
+	void addNodes(KDNode curr, ArrayList<KDNode> list) { // preorder
+		if (curr != null) {
 			list.add(curr);
-			list.addAll(makeNodeList(curr.left));
-			list.addAll(makeNodeList(curr.right));
+			addNodes(curr.left, list);
+			addNodes(curr.right, list);
 		}
-		return list;
 	}
 
-	KDNode rebalance(KDNode p, Rectangle2D cell) {
-		updateHeight(p);
+	boolean unbalanced(KDNode p) {
+		if (alpha > 0) {
+			return Math.max(size(p.left), size(p.right)) > alpha * p.size;
+		}
 		int bf = balanceFactor(p);
+		return bf > maxHeightD || bf < (-maxHeightD);
+	}
+
+	// rebuilds are deferred: on the way back up an update remembers the lowest unbalanced
+	// node, and rebuildPending rebuilds it at the end, then rechecks its ancestors
+	KDNode rebalance(KDNode p, Rectangle2D cell) {
 		if (p == null) {
 			return p; // null - nothing to do
 		}
-
-		if (bf > maxHeightD || bf < (-maxHeightD)) {
-			List<KDNode> cutArray = makeNodeList(p);
-			return buildSubtree(cutArray, cell);
+		updateHeight(p);
+		if (batching) {
+			p.dirty = true;
+		} else if (pending == null && unbalanced(p)) {
+			pending = p;
+			pendingCell = cell;
 		}
 		return p;
 	}
 
+	KDNode rebuild(KDNode p, Rectangle2D cell) { // rebuilds p's subtree into a balanced one
+		long start = (stats == null) ? 0 : System.nanoTime();
+		KDNode q = buildSubtree(writableNodeList(p), cell);
+		if (stats != null) {
+			stats.recordRebuild(q.size, start);
+		}
+		return q;
+	}
+
+	KDNode rebuildPending(KDNode p) {
+		if (pending == null) {
+			return p;
+		}
+		KDNode newRoot = rebuildAt(p, pending.point, bbox);
+		pending = null;
+		pendingCell = null;
+		return newRoot;
+	}
+
+	// pt routes to the pending node, as in find. Once it is rebuilt, each ancestor on the
+	// way back up is rebuilt too if it is still unbalanced, as an immediate rebuild would do
+	KDNode rebuildAt(KDNode p, LPoint pt, Rectangle2D cell) {
+		if (p == pending) {
+			return rebuild(p, pendingCell);
+		}
+		KDNode child;
+		p = writable(p);
+		if (p.inLeftSubtree(pt)) {
+			child = rebuildAt(p.left, pt, cell.leftPart(p.cutDim, p.point.get(p.cutDim)));
+			p.left = child;
+		} else {
+			child = rebuildAt(p.right, pt, cell.rightPart(p.cutDim, p.point.get(p.cutDim)));
+			p.right = child;
+		}
+		updateHeight(p);
+		return unbalanced(p) ? rebuild(p, cell) : p;
+	}
+
 	LPoint findMin(KDNode p, int i) throws Exception { // get min point along dim i
 		if (p == null) {
 			return null; // fell out of tree?
@@ -272,19 +664,13 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		}
 	}
 
+	// smallest of x, y and z in cd's split order (see KDNode.inLeftSubtree)
 	private LPoint minNode(LPoint x, LPoint y, LPoint z, int cd) {
 		LPoint res = x;
-		if (cd == 0) {
-			if (y != null && y.getX() < res.getX())
-				res = y;
-			if (z != null && z.getX() < res.getX())
-				res = z;
-		} else {
-			if (y != null && y.getY() < res.getY())
-				res = y;
-			if (z != null && z.getY() < res.getY())
-				res = z;
-		}
+		if (y != null && before(y.get(cd), y.get(1 - cd), res.get(cd), res.get(1 - cd)))
+			res = y;
+		if (z != null && before(z.get(cd), z.get(1 - cd), res.get(cd), res.get(1 - cd)))
+			res = z;
 		return res;
 	}
 
@@ -296,9 +682,11 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 				clear();
 			} else {
 				LPoint found = find(pt);
-				root = delete(found, root, bbox);
-				rebalance(root, bbox);
+				pending = null;
+				KDNode newRoot = delete(found, root, bbox);
+				root = rebuildPending(newRoot);
 				this.size--;
+				recordShape();
 			}
 		}
 	}
@@ -318,6 +706,7 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		}
 		// found it
 		else if (p.getPoint().equals(pt)) {
+			p = writable(p);
 			if (p.right != null) { // can replace from right
 				p.setPoint(findMin(p.right, p.cutDim));// find and copy replacement
 				p.setNewVals(p.cutDim, (p.cutDim == 0) ? (float) p.point.getX() : (float) p.point.getY());
@@ -345,17 +734,157 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		}
 		// delete from left subtree
 		else if (p.inLeftSubtree(pt)) {
-			p.left = delete(pt, p.left, cell.leftPart(p.cutDim, p.point.get(cutDim)));
+			KDNode child = delete(pt, p.left, cell.leftPart(p.cutDim, p.point.get(cutDim)));
+			p = writable(p);
+			p.left = child;
 		}
 		// delete from right subtree
 		else {
-			p.right = delete(pt, p.right, cell.rightPart(p.cutDim, p.point.get(cutDim)));
+			KDNode child = delete(pt, p.right, cell.rightPart(p.cutDim, p.point.get(cutDim)));
+			p = writable(p);
+			p.right = child;
 		}
 
 		return rebalance(p, cell);
 
 	}
 
+	// outcome of insertAll/deleteAll: points that were skipped rather than thrown on
+	public class BatchResult {
+		private int count; // points inserted or deleted
+		private final ArrayList<LPoint> duplicates = new ArrayList<LPoint>();
+		private final ArrayList<LPoint> outsideBBox = new ArrayList<LPoint>();
+		private final ArrayList<Point2D> notFound = new ArrayList<Point2D>();
+
+		public int getCount() {
+			return count;
+		}
+
+		public ArrayList<LPoint> getDuplicates() {
+			return duplicates;
+		}
+
+		public ArrayList<LPoint> getOutsideBBox() {
+			return outsideBBox;
+		}
+
+		public ArrayList<Point2D> getNotFound() {
+			return notFound;
+		}
+	}
+
+	// routes the whole batch down the tree together, then checks balance once on the
+	// way back down, rebuilding each touched subtree at most once
+	public BatchResult insertAll(Collection<LPoint> pts) {
+		BatchResult res = new BatchResult();
+		ArrayList<KDNode> A = new ArrayList<KDNode>(pts.size());
+		for (LPoint pt : pts) {
+			if (bbox.contains(pt.getPoint2D())) {
+				A.add(new KDNode(pt, 0, 0));
+			} else {
+				res.outsideBBox.add(pt);
+			}
+		}
+		// the sort is stable, so of several equal points in the batch the first one wins
+		ByX byX = new ByX();
+		Collections.sort(A, (u, v) -> {
+			int c = byX.compare(u, v);
+			return (c == DUPLICATE) ? 0 : c; // equal points must compare as 0 for a valid sort
+		});
+		int n = 0;
+		for (int i = 0; i < A.size(); i++) {
+			if (n > 0 && byX.compare(A.get(n - 1), A.get(i)) == DUPLICATE) {
+				res.duplicates.add(A.get(i).point);
+			} else {
+				A.set(n++, A.get(i));
+			}
+		}
+		KDNode r = insertBatch(A, 0, n, root, bbox, res);
+		root = fixDirty(r, bbox);
+		size += res.count;
+		recordShape();
+		return res;
+	}
+
+	KDNode insertBatch(ArrayList<KDNode> A, int lo, int hi, KDNode p, Rectangle2D cell, BatchResult res) {
+		if (lo >= hi) {
+			return p;
+		}
+		// fell out of tree: the new nodes here become one balanced subtree
+		if (p == null) {
+			res.count += hi - lo;
+			return buildSubtree(A.subList(lo, hi), cell);
+		}
+		// split A[lo..hi) into left part [lo, m) and right part [m, e); duplicates of
+		// p's point are dropped to [e, hi)
+		int m = lo;
+		int e = hi;
+		int i = lo;
+		while (i < e) {
+			LPoint pt = A.get(i).point;
+			if (pt.getX() == p.point.getX() && pt.getY() == p.point.getY()) {
+				res.duplicates.add(pt);
+				Collections.swap(A, i, --e);
+			} else if (p.inLeftSubtree(pt)) {
+				Collections.swap(A, i++, m++);
+			} else {
+				i++;
+			}
+		}
+		int before = res.count;
+		KDNode left = insertBatch(A, lo, m, p.left, cell.leftPart(p.cutDim, p.point.get(p.cutDim)), res);
+		KDNode right = insertBatch(A, m, e, p.right, cell.rightPart(p.cutDim, p.point.get(p.cutDim)), res);
+		if (res.count == before) { // nothing new below p
+			return p;
+		}
+		p = writable(p);
+		p.left = left;
+		p.right = right;
+		updateHeight(p);
+		p.dirty = true;
+		return p;
+	}
+
+	// deletes each point with rebuilds held back, then checks balance once per touched node
+	public BatchResult deleteAll(Collection<Point2D> pts) {
+		BatchResult res = new BatchResult();
+		KDNode r = root;
+		batching = true;
+		try {
+			for (Point2D pt : pts) {
+				LPoint found = (r == null) ? null : r.find(pt);
+				if (found == null) {
+					res.notFound.add(pt);
+				} else {
+					r = delete(found, r, bbox);
+					res.count++;
+				}
+			}
+		} catch (Exception e) { // found points are always deletable
+			throw new IllegalStateException(e);
+		} finally {
+			batching = false;
+		}
+		root = fixDirty(r, bbox);
+		size -= res.count;
+		recordShape();
+		return res;
+	}
+
+	// bottom-up over dirty nodes: children are fixed first, so a node is only rebuilt if
+	// it is still unbalanced after the smaller rebuilds below it
+	KDNode fixDirty(KDNode p, Rectangle2D cell) {
+		if (p == null || !p.dirty) {
+			return p;
+		}
+		p.dirty = false;
+		// p is dirty, so it was already copied if need be
+		p.left = fixDirty(p.left, cell.leftPart(p.cutDim, p.point.get(p.cutDim)));
+		p.right = fixDirty(p.right, cell.rightPart(p.cutDim, p.point.get(p.cutDim)));
+		updateHeight(p);
+		return unbalanced(p) ? rebuild(p, cell) : p;
+	}
+
 	public ArrayList<String> listHelper(KDNode curr) {
 		ArrayList<String> list = new ArrayList<String>();
 		if (curr == null) {
@@ -373,41 +902,170 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 		return list;
 	}
 
+	// compiles the current contents into a read-only, array-backed tree
+	public StatickdTree<LPoint> freeze() {
+		ArrayList<LPoint> pts = new ArrayList<LPoint>(size);
+		reportSubtree(root, pt -> pts.add(pt));
+		return new StatickdTree<LPoint>(pts, bbox);
+	}
+
+	// writes a balanced snapshot of the current contents that MappedkdTree.open can map
+	public void save(String file) throws IOException {
+		freeze().save(file);
+	}
+
 	public ArrayList<LPoint> orthogRangeReport(Rectangle2D query) {
 		ArrayList<LPoint> orthArr = new ArrayList<LPoint>();
-		return orthHelper(query, root, bbox, orthArr);
+		orthogRangeReportWhile(query, pt -> orthArr.add(pt));
+		return orthArr;
 	}
 
-	ArrayList<LPoint> orthHelper(Rectangle2D R, KDNode p, Rectangle2D cell, ArrayList<LPoint> arr) {
-		double height = cell.getWidth(1);
-		double width = cell.getWidth(0);
+	public void orthogRangeReport(Rectangle2D query, Consumer<LPoint> action) {
+		orthogRangeReportWhile(query, pt -> {
+			action.accept(pt);
+			return true;
+		});
+	}
 
-		int cutDim = 0;
-		if (height > width) {
-			cutDim = 1;
+	// reports points until action returns false; returns false if stopped early
+	public boolean orthogRangeReportWhile(Rectangle2D query, Predicate<LPoint> action) {
+		HeightBalancedkdTreeStats st = stats;
+		int[] visits = (st == null) ? null : new int[1];
+		boolean done = orthHelper(query, root, bbox.getLow().getX(), bbox.getLow().getY(), bbox.getHigh().getX(),
+				bbox.getHigh().getY(), action, visits);
+		if (st != null) {
+			st.recordRange(visits[0]);
 		}
+		return done;
+	}
 
-		// empty subtree
-		if (p == null) {
-			return new ArrayList<LPoint>(0);
+	public int orthogRangeCount(Rectangle2D query) {
+		HeightBalancedkdTreeStats st = stats;
+		int[] visits = (st == null) ? null : new int[1];
+		int ct = countHelper(query, root, bbox.getLow().getX(), bbox.getLow().getY(), bbox.getHigh().getX(),
+				bbox.getHigh().getY(), visits);
+		if (st != null) {
+			st.recordRange(visits[0]);
+		}
+		return ct;
+	}
+
+	// the range helpers carry the cell as its bounds [loX, hiX] x [loY, hiY], so no
+	// Rectangle2D is built per visited node
+
+	static boolean disjoint(Rectangle2D R, double loX, double loY, double hiX, double hiY) {
+		return hiX < R.getLow().getX() || loX > R.getHigh().getX() || hiY < R.getLow().getY()
+				|| loY > R.getHigh().getY();
+	}
+
+	static boolean containsCell(Rectangle2D R, double loX, double loY, double hiX, double hiY) {
+		return R.getLow().getX() <= loX && hiX <= R.getHigh().getX() && R.getLow().getY() <= loY
+				&& hiY <= R.getHigh().getY();
+	}
+
+	static boolean containsPoint(Rectangle2D R, LabeledPoint2D pt) {
+		return R.getLow().getX() <= pt.getX() && pt.getX() <= R.getHigh().getX() && R.getLow().getY() <= pt.getY()
+				&& pt.getY() <= R.getHigh().getY();
+	}
+
+	// visits[0], if not null, counts the nodes looked at (a reported subtree counts in full)
+	boolean orthHelper(Rectangle2D R, KDNode p, double loX, double loY, double hiX, double hiY,
+			Predicate<LPoint> action, int[] visits) {
+		// empty subtree, or the range misses this cell
+		if (p == null || disjoint(R, loX, loY, hiX, hiY)) {
+			return true;
+		}
+		boolean inside = containsCell(R, loX, loY, hiX, hiY);
+		if (visits != null) {
+			visits[0] += inside ? p.size : 1;
 		}
 		// the range contains entire cell
-		else if (R.contains(cell)) {
-			ArrayList<KDNode> temp = makeNodeList(p);
-			for (int i = 0; i < temp.size(); i++) {
-				arr.add(temp.get(i).point);
-			}
-			return arr;
+		if (inside) {
+			return reportSubtree(p, action);
 		}
 		// the range stabs this cell
 		else {
-			if (R.contains(p.point.getPoint2D())) {
-				arr.add(p.point);
+			if (containsPoint(R, p.point) && !action.test(p.point)) {
+				return false;
 			}
 			// apply recursively to children
-			arr.addAll(orthHelper(R, p.left, cell.leftPart(p.cutDim, p.point.get(cutDim)), new ArrayList<LPoint>()));
-			arr.addAll(orthHelper(R, p.right, cell.leftPart(p.cutDim, p.point.get(cutDim)), new ArrayList<LPoint>()));
-			return arr;
+			double cv = p.point.get(p.cutDim);
+			if (p.cutDim == 0) {
+				return orthHelper(R, p.left, loX, loY, cv, hiY, action, visits)
+						&& orthHelper(R, p.right, cv, loY, hiX, hiY, action, visits);
+			} else {
+				return orthHelper(R, p.left, loX, loY, hiX, cv, action, visits)
+						&& orthHelper(R, p.right, loX, cv, hiX, hiY, action, visits);
+			}
+		}
+	}
+
+	boolean reportSubtree(KDNode p, Predicate<LPoint> action) { // preorder, like makeNodeList
+		if (p == null) {
+			return true;
+		}
+		return action.test(p.point) && reportSubtree(p.left, action) && reportSubtree(p.right, action);
+	}
+
+	int countHelper(Rectangle2D R, KDNode p, double loX, double loY, double hiX, double hiY, int[] visits) {
+		if (visits != null && p != null) {
+			visits[0]++;
+		}
+		if (p == null || disjoint(R, loX, loY, hiX, hiY)) {
+			return 0;
+		} else if (containsCell(R, loX, loY, hiX, hiY)) {
+			return p.size;
+		} else {
+			int ct = containsPoint(R, p.point) ? 1 : 0;
+			double cv = p.point.get(p.cutDim);
+			if (p.cutDim == 0) {
+				return ct + countHelper(R, p.left, loX, loY, cv, hiY, visits)
+						+ countHelper(R, p.right, cv, loY, hiX, hiY, visits);
+			} else {
+				return ct + countHelper(R, p.left, loX, loY, hiX, cv, visits)
+						+ countHelper(R, p.right, loX, cv, hiX, hiY, visits);
+			}
+		}
+	}
+
+	public LPoint nearestNeighbor(Point2D q) {
+		ArrayList<LPoint> list = kNearest(q, 1);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	public ArrayList<LPoint> kNearest(Point2D q, int k) {
+		// max-heap on distance, so the current k-th best is always at the head
+		PriorityQueue<LPoint> best = new PriorityQueue<LPoint>(Math.max(k, 1),
+				(u, v) -> Double.compare(q.distanceSq(v.getPoint2D()), q.distanceSq(u.getPoint2D())));
+		if (k > 0) {
+			nearestHelper(q, k, root, bbox, best);
+		}
+		ArrayList<LPoint> list = new ArrayList<LPoint>(best);
+		Collections.sort(list, (u, v) -> Double.compare(q.distanceSq(u.getPoint2D()), q.distanceSq(v.getPoint2D())));
+		return list;
+	}
+
+	void nearestHelper(Point2D q, int k, KDNode p, Rectangle2D cell, PriorityQueue<LPoint> best) {
+		// empty subtree, or cell is farther than the k-th best so far
+		if (p == null || (best.size() == k && cell.distanceSq(q) > q.distanceSq(best.peek().getPoint2D()))) {
+			return;
+		}
+		double dist = q.distanceSq(p.point.getPoint2D());
+		if (best.size() < k) {
+			best.add(p.point);
+		} else if (dist < q.distanceSq(best.peek().getPoint2D())) {
+			best.poll();
+			best.add(p.point);
+		}
+		Rectangle2D leftCell = cell.leftPart(p.cutDim, p.point.get(p.cutDim));
+		Rectangle2D rightCell = cell.rightPart(p.cutDim, p.point.get(p.cutDim));
+		// visit the side containing q first to tighten the bound early
+		if (q.get(p.cutDim) < p.point.get(p.cutDim)) {
+			nearestHelper(q, k, p.left, leftCell, best);
+			nearestHelper(q, k, p.right, rightCell, best);
+		} else {
+			nearestHelper(q, k, p.right, rightCell, best);
+			nearestHelper(q, k, p.left, leftCell, best);
 		}
 	}
 
@@ -418,5 +1076,6 @@ public class HeightBalancedkdTree<LPoint extends LabeledPoint2D> {
 	public void clear() {
 		this.root = null;
 		this.size = 0;
+		recordShape();
 	}
 }
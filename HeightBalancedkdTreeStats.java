@@ -0,0 +1,133 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+// Rebuild and query-cost counters for a HeightBalancedkdTree, filled in only while attached
+// with HeightBalancedkdTree.setStats (a detached tree pays one null check per hook). Update
+// counters are written by the (single) writer; query counters are LongAdders because queries
+// may run on many threads at once, as in ConcurrentkdTree.
+public class HeightBalancedkdTreeStats implements HeightBalancedkdTreeStatsMBean {
+	private long rebuilds;
+	private long rebuiltNodes;
+	private long maxRebuildSize;
+	private long rebuildNanos;
+	private final long[] rebuildSizes = new long[32]; // bucket b: sizes 2^b .. 2^(b+1) - 1
+	private final long[] rebuildTimes = new long[64]; // bucket b: 2^b .. 2^(b+1) - 1 ns
+
+	// shape after the last update
+	private volatile int height = -1;
+	private volatile int size;
+
+	private final LongAdder finds = new LongAdder();
+	private final LongAdder findVisits = new LongAdder();
+	private final LongAdder rangeQueries = new LongAdder();
+	private final LongAdder rangeVisits = new LongAdder();
+
+	void recordRebuild(int n, long startNanos) {
+		long ns = System.nanoTime() - startNanos;
+		rebuilds++;
+		rebuiltNodes += n;
+		maxRebuildSize = Math.max(maxRebuildSize, n);
+		rebuildNanos += ns;
+		rebuildSizes[31 - Integer.numberOfLeadingZeros(n | 1)]++;
+		rebuildTimes[63 - Long.numberOfLeadingZeros(ns | 1)]++;
+	}
+
+	void recordShape(int height, int size) {
+		this.height = height;
+		this.size = size;
+	}
+
+	void recordFind(int visits) {
+		finds.increment();
+		findVisits.add(visits);
+	}
+
+	void recordRange(int visits) {
+		rangeQueries.increment();
+		rangeVisits.add(visits);
+	}
+
+	// registers this object with the platform MBean server as HeightBalancedkdTree:type=Stats,name=<name>
+	public void register(String name) throws Exception {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("HeightBalancedkdTree:type=Stats,name=" + name));
+	}
+
+	public long getRebuilds() {
+		return rebuilds;
+	}
+
+	public long getRebuiltNodes() {
+		return rebuiltNodes;
+	}
+
+	public long getMaxRebuildSize() {
+		return maxRebuildSize;
+	}
+
+	public long getRebuildNanos() {
+		return rebuildNanos;
+	}
+
+	public long[] getRebuildSizeHistogram() {
+		return rebuildSizes.clone();
+	}
+
+	public long[] getRebuildTimeHistogram() {
+		return rebuildTimes.clone();
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// height of a perfectly balanced tree of the same size, floor(log2(size))
+	public int getIdealHeight() {
+		return 31 - Integer.numberOfLeadingZeros(size);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public long getFinds() {
+		return finds.sum();
+	}
+
+	public double getAvgFindVisits() {
+		long n = finds.sum();
+		return (n == 0) ? 0 : (double) findVisits.sum() / n;
+	}
+
+	public long getRangeQueries() {
+		return rangeQueries.sum();
+	}
+
+	public double getAvgRangeVisits() {
+		long n = rangeQueries.sum();
+		return (n == 0) ? 0 : (double) rangeVisits.sum() / n;
+	}
+
+	public void reset() {
+		rebuilds = rebuiltNodes = maxRebuildSize = rebuildNanos = 0;
+		Arrays.fill(rebuildSizes, 0);
+		Arrays.fill(rebuildTimes, 0);
+		finds.reset();
+		findVisits.reset();
+		rangeQueries.reset();
+		rangeVisits.reset();
+	}
+
+	@Override
+	public String toString() {
+		String finStr = "rebuilds: " + rebuilds + " rebuiltNodes: " + rebuiltNodes;
+		finStr += " maxRebuildSize: " + maxRebuildSize + " rebuildNanos: " + rebuildNanos;
+		finStr += " height: " + height + " idealHeight: " + getIdealHeight() + " size: " + size;
+		finStr += " finds: " + getFinds() + " avgFindVisits: " + getAvgFindVisits();
+		finStr += " rangeQueries: " + getRangeQueries() + " avgRangeVisits: " + getAvgRangeVisits();
+		return finStr;
+	}
+}
@@ -0,0 +1,30 @@
+// management interface of HeightBalancedkdTreeStats, so it can be registered with a JMX MBean server
+public interface HeightBalancedkdTreeStatsMBean {
+	long getRebuilds();
+
+	long getRebuiltNodes();
+
+	long getMaxRebuildSize();
+
+	long getRebuildNanos();
+
+	long[] getRebuildSizeHistogram();
+
+	long[] getRebuildTimeHistogram();
+
+	int getHeight();
+
+	int getIdealHeight();
+
+	int getSize();
+
+	long getFinds();
+
+	double getAvgFindVisits();
+
+	long getRangeQueries();
+
+	double getAvgRangeVisits();
+
+	void reset();
+}
@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+// Read-only kd-tree over a snapshot file written by StatickdTree.save (or
+// HeightBalancedkdTree.save). The file is memory-mapped and queries read the node arrays
+// straight from the mapped pages, so opening is O(1) and processes mapping the same file
+// share its page cache. Points can't be rebuilt as LPoints here, so queries return labels.
+//
+// File layout (big-endian), for n nodes in StatickdTree's left-balanced order:
+//   int magic, int n, double bbox lowX, lowY, highX, highY
+//   double x[n], double y[n], double cutVal[n], byte cutDim[n], padding to a multiple of 4
+//   int labelStart[n + 1] (offsets into the label bytes), UTF-8 label bytes
+public class MappedkdTree {
+	static final int MAGIC = 0x4B445431; // "KDT1"
+	static final int HEADER = 8 + 4 * 8;
+
+	private final MappedByteBuffer buf;
+	private final int size;
+	private final Rectangle2D bbox;
+	private final int xAt; // byte offsets of the arrays
+	private final int yAt;
+	private final int cutValAt;
+	private final int cutDimAt;
+	private final int labelStartAt;
+	private final int labelsAt;
+
+	private MappedkdTree(MappedByteBuffer buf) throws Exception {
+		this.buf = buf;
+		if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC) {
+			throw new Exception("Not a kd-tree snapshot");
+		}
+		this.size = buf.getInt(4);
+		this.bbox = new Rectangle2D(new Point2D(buf.getDouble(8), buf.getDouble(16)),
+				new Point2D(buf.getDouble(24), buf.getDouble(32)));
+		this.xAt = HEADER;
+		this.yAt = xAt + 8 * size;
+		this.cutValAt = yAt + 8 * size;
+		this.cutDimAt = cutValAt + 8 * size;
+		this.labelStartAt = align4(cutDimAt + size);
+		this.labelsAt = labelStartAt + 4 * (size + 1);
+		if (size < 0 || labelsAt > buf.capacity() || labelsAt + buf.getInt(labelsAt - 4) > buf.capacity()) {
+			throw new Exception("Truncated kd-tree snapshot");
+		}
+	}
+
+	public static MappedkdTree open(String file) throws Exception {
+		try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			return new MappedkdTree(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		}
+	}
+
+	static int align4(int n) {
+		return (n + 3) & ~3;
+	}
+
+	// size of the snapshot of n nodes whose labels take labelBytes bytes in UTF-8
+	static long fileSize(int n, long labelBytes) {
+		return ((HEADER + 25L * n + 3) & ~3L) + 4L * (n + 1) + labelBytes;
+	}
+
+	// writes the snapshot; arrays are in StatickdTree's layout. The file is built under a
+	// temporary name and renamed over file, so processes with the old snapshot mapped keep
+	// reading the old pages instead of faulting on a truncated file
+	static void write(String file, Rectangle2D bbox, double[] x, double[] y, double[] cutVal, byte[] cutDim,
+			String[] labels) throws IOException {
+		int n = x.length;
+		byte[][] bytes = new byte[n][];
+		long labelBytes = 0;
+		for (int i = 0; i < n; i++) {
+			bytes[i] = labels[i].getBytes(StandardCharsets.UTF_8);
+			labelBytes += bytes[i].length;
+		}
+		long total = fileSize(n, labelBytes);
+		if (total > Integer.MAX_VALUE) {
+			throw new IOException("Snapshot too large to map");
+		}
+		Path target = Paths.get(file);
+		Path tmp = Paths.get(file + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer out = ch.map(FileChannel.MapMode.READ_WRITE, 0, total);
+			out.putInt(MAGIC).putInt(n);
+			out.putDouble(bbox.getLow().getX()).putDouble(bbox.getLow().getY());
+			out.putDouble(bbox.getHigh().getX()).putDouble(bbox.getHigh().getY());
+			for (double v : x) {
+				out.putDouble(v);
+			}
+			for (double v : y) {
+				out.putDouble(v);
+			}
+			for (double v : cutVal) {
+				out.putDouble(v);
+			}
+			out.put(cutDim);
+			out.position(align4(out.position()));
+			int off = 0;
+			for (int i = 0; i < n; i++) {
+				out.putInt(off);
+				off += bytes[i].length;
+			}
+			out.putInt(off);
+			for (byte[] b : bytes) {
+				out.put(b);
+			}
+			out.force();
+		}
+		Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Rectangle2D getBBox() {
+		return bbox;
+	}
+
+	private double x(int slot) {
+		return buf.getDouble(xAt + 8 * slot);
+	}
+
+	private double y(int slot) {
+		return buf.getDouble(yAt + 8 * slot);
+	}
+
+	private double cutVal(int slot) {
+		return buf.getDouble(cutValAt + 8 * slot);
+	}
+
+	private byte cutDim(int slot) {
+		return buf.get(cutDimAt + slot);
+	}
+
+	private String label(int slot) {
+		int lo = buf.getInt(labelStartAt + 4 * slot);
+		int hi = buf.getInt(labelStartAt + 4 * (slot + 1));
+		byte[] b = new byte[hi - lo];
+		for (int i = 0; i < b.length; i++) { // absolute gets, so concurrent readers don't interfere
+			b[i] = buf.get(labelsAt + lo + i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	// label of the point at pt, or null if there is none
+	public String find(Point2D pt) {
+		int slot = findHelper(0, pt.getX(), pt.getY());
+		return slot < 0 ? null : label(slot);
+	}
+
+	private int findHelper(int slot, double qx, double qy) {
+		while (slot < size) {
+			if (x(slot) == qx && y(slot) == qy) {
+				return slot;
+			}
+			double q = (cutDim(slot) == 0) ? qx : qy;
+			double cv = cutVal(slot);
+			if (q < cv) {
+				slot = 2 * slot + 1;
+			} else if (q > cv) {
+				slot = 2 * slot + 2;
+			} else { // tie: the point may be on either side
+				int found = findHelper(2 * slot + 1, qx, qy);
+				if (found >= 0) {
+					return found;
+				}
+				slot = 2 * slot + 2;
+			}
+		}
+		return -1;
+	}
+
+	public ArrayList<String> orthogRangeReport(Rectangle2D query) {
+		ArrayList<String> orthArr = new ArrayList<String>();
+		orthogRangeReport(query, label -> orthArr.add(label));
+		return orthArr;
+	}
+
+	public void orthogRangeReport(Rectangle2D query, Consumer<String> action) {
+		orthHelper(0, query.getLow().getX(), query.getLow().getY(), query.getHigh().getX(), query.getHigh().getY(),
+				action);
+	}
+
+	public int orthogRangeCount(Rectangle2D query) {
+		return orthHelper(0, query.getLow().getX(), query.getLow().getY(), query.getHigh().getX(),
+				query.getHigh().getY(), null);
+	}
+
+	// reports labels to action (if not null) and returns how many points matched
+	private int orthHelper(int slot, double loX, double loY, double hiX, double hiY, Consumer<String> action) {
+		if (slot >= size) {
+			return 0;
+		}
+		int ct = 0;
+		double px = x(slot);
+		double py = y(slot);
+		if (loX <= px && px <= hiX && loY <= py && py <= hiY) {
+			if (action != null) {
+				action.accept(label(slot));
+			}
+			ct++;
+		}
+		double lo = (cutDim(slot) == 0) ? loX : loY;
+		double hi = (cutDim(slot) == 0) ? hiX : hiY;
+		double cv = cutVal(slot);
+		if (lo <= cv) {
+			ct += orthHelper(2 * slot + 1, loX, loY, hiX, hiY, action);
+		}
+		if (hi >= cv) {
+			ct += orthHelper(2 * slot + 2, loX, loY, hiX, hiY, action);
+		}
+		return ct;
+	}
+}
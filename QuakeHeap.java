@@ -1,21 +1,45 @@
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.List;
 
 public class QuakeHeap<Key extends Comparable<Key>, Value> {
 
-	// references to nodes at level lev
-	private List<LinkedList<Node>> roots;
+	// first and last root at level lev; roots at a level form a doubly linked list
+	// through Node.prev/next, so a root is unlinked in O(1)
+	private Node[] roots;
+	private Node[] rootTails;
+
+	// number of roots at level lev
+	private int[] rootCt;
 
 	// number of nodes at level lev
-	private List<Integer> nodeCt;
+	private int[] nodeCt;
+
+	// scratch list reused when a level's roots are sorted and by decreaseKeyAll
+	private final ArrayList<Node> scratch = new ArrayList<Node>();
 
 	private int nLevels;
 	private double currRatio;
 
+	// root with the smallest key (null if empty), kept current by every update
+	private Node minRoot;
+
+	// counters and latencies, or null when not collecting (see setStats)
+	private QuakeHeapStats stats;
+
+	// adaptive mode (see setAdaptive): levels follow log2(size), and the quake ratio
+	// hill-climbs on the work (links, discarded nodes, roots scanned) per extractMin
+	private static final int TUNE_WINDOW = 1024; // extractMins between ratio adjustments
+	private static final double RATIO_STEP = 0.05;
+	private boolean adaptive;
+	private long work; // running total, kept whether or not adaptive
+	private long windowStart; // work at the start of the current window
+	private int windowOps;
+	private double lastCost = -1; // work per extractMin over the last window
+	private double ratioStep = RATIO_STEP;
+
 	class Node {
 		protected Key key;
 		protected Value value;
@@ -24,6 +48,8 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 		protected Node leftChild;
 		protected Node rightChild;
 		protected Locator r;
+		protected Node prev; // neighbors in the root list (only while a root)
+		protected Node next;
 
 		// default constructor
 		public Node() {
@@ -119,31 +145,102 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 		private Node get() {
 			return u;
 		}
+
+		private void set(Node u) { // point this locator at a new leaf
+			this.u = u;
+			u.setLocator(this);
+		}
+
+		private void invalidate() { // its entry has left the heap
+			this.u = null;
+		}
 	}
 
+	@SuppressWarnings("unchecked")
 	public QuakeHeap(int nLevels) {
-		this.roots = new ArrayList<>(nLevels);
-		this.nodeCt = new ArrayList<>(nLevels);
+		this.roots = (Node[]) Array.newInstance(Node.class, nLevels);
+		this.rootTails = (Node[]) Array.newInstance(Node.class, nLevels);
+		this.rootCt = new int[nLevels];
+		this.nodeCt = new int[nLevels];
 		this.nLevels = nLevels;
 		this.currRatio = 0.75;
-		for (int i = 0; i < nLevels; i++) {
-			this.roots.add(new LinkedList<>());
-			this.nodeCt.add(0);
-		}
+	}
+
+	// heapify: builds the heap from keys[i], values[i] in linear time
+	public QuakeHeap(int nLevels, Key[] keys, Value[] values) throws Exception {
+		this(nLevels);
+		insertAll(keys, values);
 	}
 
 	public void clear() {
 
-		for (int i = 0; i < nodeCt.size(); i++) {
-			this.roots.set(i, new LinkedList<>());
-			this.nodeCt.set(i, 0);
+		for (int i = 0; i < nLevels; i++) {
+			this.roots[i] = null;
+			this.rootTails[i] = null;
+			this.rootCt[i] = 0;
+			this.nodeCt[i] = 0;
 		}
+		this.minRoot = null;
 
 	}
 
 	public Locator insert(Key x, Value v) {
+		long start = (stats == null) ? 0 : System.nanoTime();
 		Node u = trivialTree(x, v);
-		return new Locator(u);
+		Locator r = new Locator(u);
+		if (adaptive) {
+			growLevels();
+		}
+		if (stats != null) {
+			stats.record(QuakeHeapStats.INSERT, start);
+		}
+		return r;
+	}
+
+	// starts collecting into s, or stops if s is null
+	public void setStats(QuakeHeapStats s) {
+		this.stats = s;
+	}
+
+	public QuakeHeapStats getStats() {
+		return stats;
+	}
+
+	// inserts keys[i], values[i] for all i and returns their locators in the same order.
+	// The new leaves are linked into balanced trees bottom-up, so the whole batch costs
+	// O(n) and the next extractMin finds them already merged.
+	@SuppressWarnings("unchecked")
+	public Locator[] insertAll(Key[] keys, Value[] values) throws Exception {
+		if (keys.length != values.length) {
+			throw new Exception("Keys and values differ in length");
+		}
+		int n = keys.length;
+		Locator[] locs = (Locator[]) Array.newInstance(Locator.class, n);
+		Node[] level = (Node[]) Array.newInstance(Node.class, n);
+		for (int i = 0; i < n; i++) {
+			level[i] = new Node(keys[i], values[i]);
+			locs[i] = new Locator(level[i]);
+		}
+		nodeCt[0] += n;
+		if (adaptive) {
+			growLevels();
+		}
+		// pair the trees of each level into the next, leaving an odd one out as a root
+		for (int lev = 0; lev < nLevels - 1 && n > 0; lev++) {
+			if (n % 2 == 1) {
+				makeRoot(level[n - 1]);
+				offerMinRoot(level[n - 1]);
+			}
+			for (int i = 0; i + 1 < n; i += 2) {
+				level[i / 2] = link(level[i], level[i + 1]);
+			}
+			n /= 2;
+		}
+		for (int i = 0; i < n; i++) { // whatever reached the top level
+			makeRoot(level[i]);
+			offerMinRoot(level[i]);
+		}
+		return locs;
 	}
 
 	public int getMaxLevel(Locator r) {
@@ -164,20 +261,37 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 		return finLevel;
 	}
 
+	public Key getKey(Locator r) {
+		return r.get().key;
+	}
+
 	public Key getMinKey() throws Exception {
-		Node u = findRootWithSmallestKey(); // find the min root
-		if (u == null) { // heap is empty
+		if (minRoot == null) { // heap is empty
 			throw new Exception("Empty heap");
 		}
-		mergeTrees(); // merge trees
-		return u.key;
+		return minRoot.key;
+	}
+
+	// called after a quake or setNLevels, which can replace the nodes holding the minimum
+	private void updateMinRoot() throws Exception {
+		minRoot = isArrEmpty() ? null : findRootWithSmallestKey();
+	}
+
+	private void offerMinRoot(Node u) { // u just became a root, or its key decreased
+		if (minRoot == null || u.key.compareTo(minRoot.key) < 0) {
+			minRoot = u;
+		}
 	}
 
 	Node findRootWithSmallestKey() throws Exception {
 		if (!isArrEmpty()) {
 			Node min = null;
 			for (int lev = 0; lev < nLevels; lev++) { // process all levels
-				for (Node u : roots.get(lev)) {
+				if (stats != null) {
+					stats.rootsScanned += rootCt[lev];
+				}
+				work += rootCt[lev];
+				for (Node u = roots[lev]; u != null; u = u.next) {
 					if (min == null) {
 						min = u;
 					} else if (u.key.compareTo(min.key) < 0) {
@@ -194,12 +308,12 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 	public ArrayList<String> listHeap() {
 		ArrayList<String> list = new ArrayList<String>();
 		for (int lev = 0; lev < nLevels; lev++) {
-			if (nodeCt.get(lev) > 0) {
-				list.add("{lev: " + lev + " nodeCt: " + nodeCt.get(lev) + "}");
+			if (nodeCt[lev] > 0) {
+				list.add("{lev: " + lev + " nodeCt: " + nodeCt[lev] + "}");
 			}
-			if (roots.get(lev).size() > 0) { // has at least one root?
-				Collections.sort(roots.get(lev), new nodeComparator()); // sort roots by key
-				for (Node u : roots.get(lev)) {
+			if (rootCt[lev] > 0) { // has at least one root?
+				sortRoots(lev); // sort roots by key
+				for (Node u = roots[lev]; u != null; u = u.next) {
 					list.addAll(internalNode(u));
 				}
 			}
@@ -221,15 +335,66 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 		return list;
 	}
 
-	private void makeRoot(Node u) {
+	private void makeRoot(Node u) { // append u to the roots at its level
 		u.setParent(null);
-		roots.get(u.level).add(u);
+		int lev = u.level;
+		u.prev = rootTails[lev];
+		u.next = null;
+		if (rootTails[lev] == null) {
+			roots[lev] = u;
+		} else {
+			rootTails[lev].next = u;
+		}
+		rootTails[lev] = u;
+		rootCt[lev]++;
+	}
+
+	private void unlinkRoot(Node u) {
+		int lev = u.level;
+		if (u.prev == null) {
+			roots[lev] = u.next;
+		} else {
+			u.prev.next = u.next;
+		}
+		if (u.next == null) {
+			rootTails[lev] = u.prev;
+		} else {
+			u.next.prev = u.prev;
+		}
+		u.prev = u.next = null;
+		rootCt[lev]--;
+	}
+
+	private Node removeFirstRoot(int lev) {
+		Node u = roots[lev];
+		unlinkRoot(u);
+		return u;
+	}
+
+	private void clearRoots(int lev) {
+		roots[lev] = rootTails[lev] = null;
+		rootCt[lev] = 0;
+	}
+
+	// stable sort of the roots at level lev by key
+	private void sortRoots(int lev) {
+		scratch.clear();
+		for (Node u = roots[lev]; u != null; u = u.next) {
+			scratch.add(u);
+		}
+		Collections.sort(scratch, new nodeComparator());
+		clearRoots(lev);
+		for (Node u : scratch) {
+			makeRoot(u);
+		}
+		scratch.clear();
 	}
 
 	private Node trivialTree(Key x, Value v) {
 		Node u = new Node(x, v);
-		nodeCt.set(0, nodeCt.get(0) + 1);
+		nodeCt[0]++;
 		makeRoot(u);
+		offerMinRoot(u);
 
 		return u;
 	}
@@ -237,7 +402,10 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 	private void deleteLeftPath(Node u) {
 		while (u != null) {
 			cut(u);
-			nodeCt.set(u.level, nodeCt.get(u.level) - 1);
+			nodeCt[u.level]--;
+			if (u.level == 0 && u.getLocator() != null) { // the leaf: its entry is gone
+				u.getLocator().invalidate();
+			}
 			u = u.leftChild;
 		}
 
@@ -248,6 +416,9 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 		if (v != null) {
 			w.rightChild = null;
 			makeRoot(v);
+			if (stats != null) {
+				stats.cuts++;
+			}
 		}
 	}
 
@@ -255,8 +426,7 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 		Node parent = n.parent;
 		if (parent != null) {
 			parent.rightChild = null;
-			n.parent = null;
-			this.roots.get(n.getLevel()).add(n);
+			makeRoot(n);
 		}
 	}
 
@@ -281,21 +451,35 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 
 	private void clearAllAbove(int lev) {
 		for (int i = nLevels - 1; i >= lev + 1; i--) {
-			Collections.sort(roots.get(i), new nodeComparator()); // sort roots by key
-			for (Node u : roots.get(i)) {
+			Node u = roots[i];
+			while (u != null) {
+				Node next = u.next;
+				u.prev = u.next = null;
 				clearHelp(lev, u);
+				u = next;
 			}
-			nodeCt.set(i, 0);
-			roots.set(i, new LinkedList<Node>());
+			work += nodeCt[i];
+			nodeCt[i] = 0;
+			clearRoots(i);
 		}
 	}
 
-	private void quake() {
+	private boolean quake() { // returns true if any levels were cleared
+		boolean quaked = false;
 		for (int i = 0; i <= nLevels - 2; i++) {
-			if (nodeCt.get(i + 1) > (this.currRatio * nodeCt.get(i))) {
+			if (nodeCt[i + 1] > (this.currRatio * nodeCt[i])) {
+				if (stats != null) {
+					stats.quakes++;
+					stats.levelsCleared += nLevels - 1 - i;
+					for (int j = i + 1; j < nLevels; j++) {
+						stats.nodesDiscarded += nodeCt[j];
+					}
+				}
 				clearAllAbove(i);
+				quaked = true;
 			}
 		}
+		return quaked;
 	}
 
 	private Node link(Node u, Node v) {
@@ -308,26 +492,47 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 			w = new Node(v.key, v.value, null, lev, v, u);
 		}
 
-		nodeCt.set(lev, nodeCt.get(lev) + 1);
+		nodeCt[lev]++;
 		u.parent = v.parent = w;
+		if (stats != null) {
+			stats.links++;
+		}
+		work++;
+		if (minRoot == u || minRoot == v) {
+			minRoot = w; // w carries the smaller key up
+		}
 		return w;
 	}
 
+	// links roots pairwise level by level, finding the new minimum in the same sweep
 	private void mergeTrees() {
+		minRoot = null;
 		for (int lev = 0; lev < nLevels - 1; lev++) {
-			// sort nodes
-			Collections.sort(roots.get(lev), new nodeComparator());
-			// while roots[k] has at least 2 roots
-			while (roots.get(lev).size() >= 2) {
-				Node u = roots.get(lev).remove();
-				Node v = roots.get(lev).remove();
+			// while roots[k] has at least 2 roots (any pairing works, so no sort)
+			while (rootCt[lev] >= 2) {
+				Node u = removeFirstRoot(lev);
+				Node v = removeFirstRoot(lev);
 				Node w = link(u, v);
 				makeRoot(w);
 			}
+			if (roots[lev] != null) { // at most one left over
+				offerMinRoot(roots[lev]);
+			}
+		}
+		for (Node u = roots[nLevels - 1]; u != null; u = u.next) {
+			offerMinRoot(u);
 		}
+		if (stats != null) {
+			stats.rootsScanned += rootCt[nLevels - 1];
+		}
+		work += rootCt[nLevels - 1];
 	}
 
 	public void decreaseKey(Locator r, Key newKey) throws Exception {
+		if (r.get() == null) {
+			throw new Exception("Attempt to decrease the key of a nonexistent entry");
+		}
+		long start = (stats == null) ? 0 : System.nanoTime();
 		Node u = r.get();
 		Node uChild = null;
 		// setting u to root node
@@ -342,27 +547,162 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 			if (u != null) {
 				cut(u);
 			}
+			offerMinRoot(uChild); // uChild is now a root holding newKey
+			if (stats != null) {
+				stats.record(QuakeHeapStats.DECREASE_KEY, start);
+			}
 		} else {
 			throw new Exception("Invalid key for decrease-key");
 		}
 	}
 
+	// applies decreaseKey(locs[i], keys[i]) for all i, in order, and returns the indices
+	// of the entries that were rejected (null, no longer in the heap, or larger than the
+	// current key) instead of throwing. Leaf keys are lowered first, then each touched
+	// left path is walked once: repeated updates to one locator only walk it for the final
+	// key, and a right child is cut only when its parent's key is actually larger.
+	public ArrayList<Integer> decreaseKeyAll(Locator[] locs, Key[] keys) throws Exception {
+		if (locs.length != keys.length) {
+			throw new Exception("Locators and keys differ in length");
+		}
+		ArrayList<Integer> invalid = new ArrayList<Integer>();
+		scratch.clear();
+		for (int i = 0; i < locs.length; i++) {
+			if (locs[i] == null || locs[i].get() == null || keys[i] == null
+					|| keys[i].compareTo(locs[i].get().key) > 0) {
+				invalid.add(i);
+			} else {
+				Node leaf = locs[i].get();
+				leaf.key = keys[i];
+				scratch.add(leaf);
+			}
+		}
+		for (Node leaf : scratch) {
+			Key x = leaf.key;
+			Node uChild = leaf;
+			Node u = leaf.parent;
+			// stops early on a path this batch already updated
+			while (u != null && uChild == u.leftChild && u.key.compareTo(x) > 0) {
+				u.key = x;
+				uChild = u;
+				u = u.parent;
+			}
+			if (u == null) {
+				offerMinRoot(uChild);
+			} else if (uChild == u.rightChild && u.key.compareTo(x) > 0) {
+				cut(u);
+				offerMinRoot(uChild);
+			}
+		}
+		scratch.clear();
+		return invalid;
+	}
+
+	// removes r's entry without going through extractMin: the tree node topping r's left
+	// path is detached and the path deleted as in extractMin, but the trees are only
+	// merged when the minimum itself was removed
+	public void delete(Locator r) throws Exception {
+		if (r.get() == null) { // already extracted or deleted
+			throw new Exception("Attempt to delete a nonexistent entry");
+		}
+		if (isArrEmpty()) {
+			throw new Exception("Empty heap");
+		}
+		long start = (stats == null) ? 0 : System.nanoTime();
+		Node u = r.get();
+		while (u.parent != null && u.parent.leftChild == u) {
+			u = u.parent;
+		}
+		if (u.parent != null) { // u is a right child
+			u.parent.rightChild = null;
+			u.parent = null;
+		} else {
+			unlinkRoot(u);
+		}
+		deleteLeftPath(u);
+		if (minRoot == u) {
+			mergeTrees();
+		}
+		if (quake()) {
+			updateMinRoot();
+		}
+		if (stats != null) {
+			stats.record(QuakeHeapStats.DELETE, start);
+		}
+	}
+
+	// deletes r's entry and reinserts it with newKey; r stays valid and refers to the new leaf
+	public void increaseKey(Locator r, Key newKey) throws Exception {
+		Node u = r.get();
+		if (u == null) {
+			throw new Exception("Attempt to increase the key of a nonexistent entry");
+		}
+		if (newKey.compareTo(u.getKey()) < 0) {
+			throw new Exception("Invalid key for increase-key");
+		}
+		Value v = u.value;
+		delete(r);
+		r.set(trivialTree(newKey, v));
+	}
+
 	public Value extractMin() throws Exception {
 		if (!(isArrEmpty())) {
-			Node u = findRootWithSmallestKey();
+			long start = (stats == null) ? 0 : System.nanoTime();
+			Node u = minRoot;
 			Value result = u.value;
 			deleteLeftPath(u);
-			roots.get(u.level).remove(u);
+			unlinkRoot(u);
 			mergeTrees();
-			quake();
+			if (quake()) {
+				updateMinRoot();
+			}
+			if (adaptive) {
+				adapt();
+			}
+			if (stats != null) {
+				stats.recordLevels(nodeCt, nLevels);
+				stats.record(QuakeHeapStats.EXTRACT_MIN, start);
+			}
 			return result;
 		} else {
 			throw new Exception("Empty heap");
 		}
 	}
 
+	// moves all of other's entries into this heap, leaving other empty. Each level's root
+	// list is spliced onto ours and the counts added, so this is O(nLevels); other's
+	// locators keep working with this heap. If other has more levels, this heap grows to match.
+	public void meld(QuakeHeap<Key, Value> other) throws Exception {
+		if (other == this) {
+			throw new Exception("Attempt to meld a heap with itself");
+		}
+		if (other.nLevels > this.nLevels) {
+			setNLevels(other.nLevels);
+		}
+		for (int lev = 0; lev < other.nLevels; lev++) {
+			if (other.roots[lev] != null) {
+				if (rootTails[lev] == null) {
+					roots[lev] = other.roots[lev];
+				} else {
+					rootTails[lev].next = other.roots[lev];
+					other.roots[lev].prev = rootTails[lev];
+				}
+				rootTails[lev] = other.rootTails[lev];
+			}
+			rootCt[lev] += other.rootCt[lev];
+			nodeCt[lev] += other.nodeCt[lev];
+		}
+		if (other.minRoot != null) {
+			offerMinRoot(other.minRoot);
+		}
+		other.clear();
+		if (adaptive) {
+			growLevels();
+		}
+	}
+
 	public int size() {
-		return nodeCt.get(0);
+		return nodeCt[0];
 	}
 
 	public void setQuakeRatio(double newRatio) throws Exception {
@@ -376,37 +716,74 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 		if (nl < 1) {
 			throw new Exception("Attempt to set an invalid number of levels");
 		}
-		if (nl > this.nLevels) {
-			List<LinkedList<Node>> newRoots = new ArrayList<>(nl);
-			List<Integer> newNodeCt = new ArrayList<>(nl);
+		if (nl < this.nLevels) {
+			clearAllAbove(nl - 1);
+			updateMinRoot();
+		}
+		resizeLevels(nl);
+	}
 
-			for (int i = 0; i <= nl - nLevels; i++) {
-				newRoots.add(roots.get(i));
-				newNodeCt.add(nodeCt.get(i));
-			}
+	public int getNLevels() {
+		return nLevels;
+	}
 
-			for (int j = (nl - nLevels) + 1; j < nl; j++) {
-				newRoots.add(new LinkedList<>());
-				newNodeCt.add(0);
-			}
+	public double getQuakeRatio() {
+		return currRatio;
+	}
 
-			this.roots = newRoots;
-			this.nodeCt = newNodeCt;
+	// in adaptive mode the heap picks its own nLevels and quake ratio: levels grow as soon
+	// as log2(size) needs them and shrink once the heap is 16 times smaller, and the ratio
+	// is moved by RATIO_STEP after every TUNE_WINDOW extractMins, reversing direction
+	// whenever the last move made the work per extractMin go up
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		this.windowStart = work;
+		this.windowOps = 0;
+		this.lastCost = -1;
+		if (adaptive) {
+			growLevels();
+		}
+	}
 
-		} else if (nl < this.nLevels) {
-			clearAllAbove(nl - 1);
+	// enough levels for one tree to hold every leaf: floor(log2(size)) + 2
+	private int targetLevels() {
+		return 33 - Integer.numberOfLeadingZeros(nodeCt[0]);
+	}
 
-			for (int i = nLevels - 1; i <= nl; i--) {
-				this.roots.remove(i);
-				this.nodeCt.remove(i);
+	private void growLevels() {
+		int nl = targetLevels();
+		if (nl > nLevels) {
+			resizeLevels(nl);
+		}
+	}
+
+	private void adapt() throws Exception { // after each extractMin in adaptive mode
+		int nl = targetLevels();
+		if (nl + 4 <= nLevels) {
+			setNLevels(nl);
+		}
+		if (++windowOps == TUNE_WINDOW) {
+			double cost = (double) (work - windowStart) / windowOps;
+			if (lastCost >= 0 && cost > lastCost) {
+				ratioStep = -ratioStep;
 			}
+			currRatio = Math.min(1.0, Math.max(0.5, currRatio + ratioStep));
+			lastCost = cost;
+			windowStart = work;
+			windowOps = 0;
 		}
-		this.nLevels = nl;
+	}
 
+	private void resizeLevels(int nl) { // levels above nl must already be empty
+		this.roots = Arrays.copyOf(roots, nl);
+		this.rootTails = Arrays.copyOf(rootTails, nl);
+		this.rootCt = Arrays.copyOf(rootCt, nl);
+		this.nodeCt = Arrays.copyOf(nodeCt, nl);
+		this.nLevels = nl;
 	}
 
 	private boolean isArrEmpty() {
-		return nodeCt.get(0) == 0;
+		return nodeCt[0] == 0;
 	}
 
 	// comparator class for sorting
@@ -426,12 +803,12 @@ public class QuakeHeap<Key extends Comparable<Key>, Value> {
 	public ArrayList<String> printWholeTree() {
 		ArrayList<String> list = new ArrayList<String>();
 		for (int lev = 0; lev < nLevels; lev++) {
-			if (nodeCt.get(lev) > 0) {
-				list.add("\n{lev: " + lev + " nodeCt: " + nodeCt.get(lev) + "}");
+			if (nodeCt[lev] > 0) {
+				list.add("\n{lev: " + lev + " nodeCt: " + nodeCt[lev] + "}");
 			}
-			if (roots.get(lev).size() > 0) { // has at least one root?
-				Collections.sort(roots.get(lev), new nodeComparator()); // sort roots by key
-				for (Node u : roots.get(lev)) {
+			if (rootCt[lev] > 0) { // has at least one root?
+				sortRoots(lev); // sort roots by key
+				for (Node u = roots[lev]; u != null; u = u.next) {
 					list.addAll(printHelp(u));
 				}
 			}
@@ -0,0 +1,127 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+// Counters and latency histograms for a QuakeHeap, filled in only while attached with
+// QuakeHeap.setStats (a detached heap pays one null check per hook). The heap updates the
+// fields without synchronization, so readers on other threads (JMX) see recent, not exact, values.
+public class QuakeHeapStats implements QuakeHeapStatsMBean {
+	public static final int INSERT = 0;
+	public static final int EXTRACT_MIN = 1;
+	public static final int DECREASE_KEY = 2;
+	public static final int DELETE = 3;
+	private static final String[] OP_NAMES = { "insert", "extractMin", "decreaseKey", "delete" };
+
+	long links;
+	long cuts;
+	long quakes;
+	long levelsCleared; // levels emptied by quakes
+	long nodesDiscarded; // internal nodes thrown away by quakes
+	long rootsScanned; // roots examined while searching for the minimum
+	int[] levelCounts = new int[0]; // nodes per level after the last extractMin
+
+	// latency[op][b] counts operations that took between 2^b and 2^(b+1) - 1 ns
+	private final long[][] latency = new long[OP_NAMES.length][64];
+
+	void record(int op, long startNanos) {
+		long ns = System.nanoTime() - startNanos;
+		latency[op][63 - Long.numberOfLeadingZeros(ns | 1)]++;
+	}
+
+	void recordLevels(int[] nodeCt, int nLevels) {
+		if (levelCounts.length != nLevels) {
+			levelCounts = new int[nLevels];
+		}
+		System.arraycopy(nodeCt, 0, levelCounts, 0, nLevels);
+	}
+
+	// registers this object with the platform MBean server as QuakeHeap:type=Stats,name=<name>
+	public void register(String name) throws Exception {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("QuakeHeap:type=Stats,name=" + name));
+	}
+
+	public long getLinks() {
+		return links;
+	}
+
+	public long getCuts() {
+		return cuts;
+	}
+
+	public long getQuakes() {
+		return quakes;
+	}
+
+	public long getLevelsCleared() {
+		return levelsCleared;
+	}
+
+	public long getNodesDiscarded() {
+		return nodesDiscarded;
+	}
+
+	public long getRootsScanned() {
+		return rootsScanned;
+	}
+
+	public int[] getLevelCounts() {
+		return levelCounts.clone();
+	}
+
+	public long getCount(String op) {
+		long ct = 0;
+		for (long c : latency[opIndex(op)]) {
+			ct += c;
+		}
+		return ct;
+	}
+
+	public long[] getLatencyHistogram(String op) {
+		return latency[opIndex(op)].clone();
+	}
+
+	// upper bound in ns of the bucket holding the p-th quantile (0 < p <= 1), or 0 if no samples
+	public long getLatencyPercentile(String op, double p) {
+		long[] hist = latency[opIndex(op)];
+		long target = (long) Math.ceil(p * getCount(op));
+		long seen = 0;
+		for (int b = 0; b < hist.length; b++) {
+			seen += hist[b];
+			if (seen >= target && seen > 0) {
+				return (b == 62) ? Long.MAX_VALUE : (1L << (b + 1)) - 1;
+			}
+		}
+		return 0;
+	}
+
+	public void reset() {
+		links = cuts = quakes = levelsCleared = nodesDiscarded = rootsScanned = 0;
+		levelCounts = new int[0];
+		for (long[] hist : latency) {
+			Arrays.fill(hist, 0);
+		}
+	}
+
+	private static int opIndex(String op) {
+		for (int i = 0; i < OP_NAMES.length; i++) {
+			if (OP_NAMES[i].equals(op)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown operation: " + op);
+	}
+
+	@Override
+	public String toString() {
+		String finStr = "links: " + links + " cuts: " + cuts + " quakes: " + quakes;
+		finStr += " levelsCleared: " + levelsCleared + " nodesDiscarded: " + nodesDiscarded;
+		finStr += " rootsScanned: " + rootsScanned + " levelCounts: " + Arrays.toString(levelCounts);
+		for (String op : OP_NAMES) {
+			finStr += " " + op + ": " + getCount(op) + " (p50 " + getLatencyPercentile(op, 0.5) + "ns, p99 "
+					+ getLatencyPercentile(op, 0.99) + "ns)";
+		}
+		return finStr;
+	}
+}
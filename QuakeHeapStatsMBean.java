@@ -0,0 +1,24 @@
+// management interface of QuakeHeapStats, so it can be registered with a JMX MBean server
+public interface QuakeHeapStatsMBean {
+	long getLinks();
+
+	long getCuts();
+
+	long getQuakes();
+
+	long getLevelsCleared();
+
+	long getNodesDiscarded();
+
+	long getRootsScanned();
+
+	int[] getLevelCounts();
+
+	long getCount(String op);
+
+	long[] getLatencyHistogram(String op);
+
+	long getLatencyPercentile(String op, double p);
+
+	void reset();
+}
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+public class StatickdTree<LPoint extends LabeledPoint2D> {
+	// node i has children 2i+1 and 2i+2 (left-balanced, so slots 0..n-1 are all used)
+	private final double[] x; // x coordinate of node
+	private final double[] y; // y coordinate of node
+	private final byte[] cutDim; // cutting dimension
+	private final double[] cutVal; // cutting value
+	private final int[] label; // index of node's point in points
+	private final ArrayList<LPoint> points;
+	private final Rectangle2D bbox;
+	private final int size;
+
+	public StatickdTree(Collection<LPoint> pts, Rectangle2D bbox) {
+		this.points = new ArrayList<LPoint>(pts);
+		this.bbox = bbox;
+		this.size = points.size();
+		this.x = new double[size];
+		this.y = new double[size];
+		this.cutDim = new byte[size];
+		this.cutVal = new double[size];
+		this.label = new int[size];
+
+		double[] px = new double[size];
+		double[] py = new double[size];
+		int[] perm = new int[size];
+		for (int i = 0; i < size; i++) {
+			px[i] = points.get(i).getX();
+			py[i] = points.get(i).getY();
+			perm[i] = i;
+		}
+		build(0, perm, px, py, 0, size, bbox.getLow().getX(), bbox.getLow().getY(), bbox.getHigh().getX(),
+				bbox.getHigh().getY());
+	}
+
+	private void build(int slot, int[] perm, double[] px, double[] py, int lo, int hi, double loX, double loY,
+			double hiX, double hiY) {
+		int n = hi - lo;
+		if (n <= 0) {
+			return;
+		}
+		int cd = (hiY - loY > hiX - loX) ? 1 : 0; // same rule as HeightBalancedkdTree
+		double[] coord = (cd == 0) ? px : py;
+		int m = lo + leftSize(n);
+		select(perm, coord, lo, hi - 1, m);
+
+		int j = perm[m];
+		x[slot] = px[j];
+		y[slot] = py[j];
+		cutDim[slot] = (byte) cd;
+		cutVal[slot] = coord[j];
+		label[slot] = j;
+
+		// ties with the cut value may land on either side; queries account for that
+		if (cd == 0) {
+			build(2 * slot + 1, perm, px, py, lo, m, loX, loY, coord[j], hiY);
+			build(2 * slot + 2, perm, px, py, m + 1, hi, coord[j], loY, hiX, hiY);
+		} else {
+			build(2 * slot + 1, perm, px, py, lo, m, loX, loY, hiX, coord[j]);
+			build(2 * slot + 2, perm, px, py, m + 1, hi, loX, coord[j], hiX, hiY);
+		}
+	}
+
+	// size of the left subtree of a left-balanced (complete) tree with n nodes
+	private static int leftSize(int n) {
+		if (n <= 1) {
+			return 0;
+		}
+		int h = 31 - Integer.numberOfLeadingZeros(n); // levels below the root
+		int half = 1 << (h - 1); // nodes on the last full level of each subtree
+		int last = n - ((1 << h) - 1); // nodes on the bottom level
+		return (half - 1) + Math.min(last, half);
+	}
+
+	// quickselect on primitive coordinates: perm[k] gets the k-th smallest of perm[lo..hi]
+	private static void select(int[] perm, double[] coord, int lo, int hi, int k) {
+		while (lo < hi) {
+			double pivot = coord[perm[lo + (hi - lo) / 2]];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (coord[perm[i]] < pivot) {
+					i++;
+				}
+				while (pivot < coord[perm[j]]) {
+					j--;
+				}
+				if (i <= j) {
+					int tmp = perm[i];
+					perm[i] = perm[j];
+					perm[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	// writes the nodes, in this layout, to a snapshot file that MappedkdTree.open can map
+	public void save(String file) throws IOException {
+		String[] labels = new String[size];
+		for (int i = 0; i < size; i++) {
+			labels[i] = points.get(label[i]).getLabel();
+		}
+		MappedkdTree.write(file, bbox, x, y, cutVal, cutDim, labels);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Rectangle2D getBBox() {
+		return bbox;
+	}
+
+	public LPoint find(Point2D pt) {
+		int slot = findHelper(0, pt.getX(), pt.getY());
+		return slot < 0 ? null : points.get(label[slot]);
+	}
+
+	private int findHelper(int slot, double qx, double qy) {
+		while (slot < size) {
+			if (x[slot] == qx && y[slot] == qy) {
+				return slot;
+			}
+			double q = (cutDim[slot] == 0) ? qx : qy;
+			if (q < cutVal[slot]) {
+				slot = 2 * slot + 1;
+			} else if (q > cutVal[slot]) {
+				slot = 2 * slot + 2;
+			} else { // tie: the point may be on either side
+				int found = findHelper(2 * slot + 1, qx, qy);
+				if (found >= 0) {
+					return found;
+				}
+				slot = 2 * slot + 2;
+			}
+		}
+		return -1;
+	}
+
+	public ArrayList<LPoint> orthogRangeReport(Rectangle2D query) {
+		ArrayList<LPoint> orthArr = new ArrayList<LPoint>();
+		orthogRangeReport(query, pt -> orthArr.add(pt));
+		return orthArr;
+	}
+
+	public void orthogRangeReport(Rectangle2D query, Consumer<LPoint> action) {
+		orthHelper(0, query.getLow().getX(), query.getLow().getY(), query.getHigh().getX(), query.getHigh().getY(),
+				action);
+	}
+
+	private void orthHelper(int slot, double loX, double loY, double hiX, double hiY, Consumer<LPoint> action) {
+		if (slot >= size) {
+			return;
+		}
+		if (loX <= x[slot] && x[slot] <= hiX && loY <= y[slot] && y[slot] <= hiY) {
+			action.accept(points.get(label[slot]));
+		}
+		double lo = (cutDim[slot] == 0) ? loX : loY;
+		double hi = (cutDim[slot] == 0) ? hiX : hiY;
+		if (lo <= cutVal[slot]) {
+			orthHelper(2 * slot + 1, loX, loY, hiX, hiY, action);
+		}
+		if (hi >= cutVal[slot]) {
+			orthHelper(2 * slot + 2, loX, loY, hiX, hiY, action);
+		}
+	}
+
+	public int orthogRangeCount(Rectangle2D query) {
+		int[] ct = { 0 };
+		orthogRangeReport(query, pt -> ct[0]++);
+		return ct[0];
+	}
+
+	public LPoint nearestNeighbor(Point2D q) {
+		ArrayList<LPoint> list = kNearest(q, 1);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	public ArrayList<LPoint> kNearest(Point2D q, int k) {
+		k = Math.min(k, size);
+		ArrayList<LPoint> list = new ArrayList<LPoint>(Math.max(k, 0));
+		if (k <= 0) {
+			return list;
+		}
+		// bounded max-heap of slots keyed on squared distance
+		int[] heap = new int[k];
+		double[] dist = new double[k];
+		int ct = nearestHelper(0, q.getX(), q.getY(), heap, dist, 0);
+		// repeatedly pop the farthest to get ascending order
+		int[] sorted = new int[ct];
+		while (ct > 0) {
+			sorted[ct - 1] = label[heap[0]];
+			ct--;
+			heap[0] = heap[ct];
+			dist[0] = dist[ct];
+			siftDown(heap, dist, ct);
+		}
+		for (int j : sorted) {
+			list.add(points.get(j));
+		}
+		return list;
+	}
+
+	private int nearestHelper(int slot, double qx, double qy, int[] heap, double[] dist, int ct) {
+		if (slot >= size) {
+			return ct;
+		}
+		double dx = x[slot] - qx;
+		double dy = y[slot] - qy;
+		double d = dx * dx + dy * dy;
+		if (ct < heap.length) { // sift up
+			int i = ct++;
+			while (i > 0 && dist[(i - 1) / 2] < d) {
+				heap[i] = heap[(i - 1) / 2];
+				dist[i] = dist[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			heap[i] = slot;
+			dist[i] = d;
+		} else if (d < dist[0]) {
+			heap[0] = slot;
+			dist[0] = d;
+			siftDown(heap, dist, ct);
+		}
+		double diff = ((cutDim[slot] == 0) ? qx : qy) - cutVal[slot];
+		int near = (diff < 0) ? 2 * slot + 1 : 2 * slot + 2;
+		int far = (diff < 0) ? 2 * slot + 2 : 2 * slot + 1;
+		ct = nearestHelper(near, qx, qy, heap, dist, ct);
+		if (ct < heap.length || diff * diff <= dist[0]) {
+			ct = nearestHelper(far, qx, qy, heap, dist, ct);
+		}
+		return ct;
+	}
+
+	private static void siftDown(int[] heap, double[] dist, int ct) {
+		int i = 0;
+		while (2 * i + 1 < ct) {
+			int c = 2 * i + 1;
+			if (c + 1 < ct && dist[c + 1] > dist[c]) {
+				c++;
+			}
+			if (dist[i] >= dist[c]) {
+				return;
+			}
+			int th = heap[i];
+			double td = dist[i];
+			heap[i] = heap[c];
+			dist[i] = dist[c];
+			heap[c] = th;
+			dist[c] = td;
+			i = c;
+		}
+	}
+}